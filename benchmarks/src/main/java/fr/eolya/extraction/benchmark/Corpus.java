@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import fr.eolya.extraction.tika.TikaWrapper;
+
+/**
+ * Documents of the test corpus, read from the directory given by the <code>corpus</code> system property
+ * (default <code>../src/test/resources/fr/eolya/extraction/doc</code>, the benchmarks being run from this module).
+ * The documents are loaded in memory so that the benchmarks do not measure the disk.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class Corpus {
+
+	static final String DIRECTORY = System.getProperty("corpus", "../src/test/resources/fr/eolya/extraction/doc");
+
+	private Corpus() {
+	}
+
+	static byte[] load(String name) throws IOException {
+		File file = new File(DIRECTORY, name);
+		if (!file.isFile()) throw new IOException("Document not found : " + file.getAbsolutePath() + " (set -Dcorpus=<directory>)");
+		return Files.readAllBytes(file.toPath());
+	}
+
+	/**
+	 * @return the content type given to the extractor, <code>null</code> lets Tika detect it
+	 */
+	static String getContentType(String name) {
+		String lower = name.toLowerCase();
+		if (lower.endsWith(".pdf")) return TikaWrapper.CONTENT_TYPE_PDF;
+		if (lower.endsWith(".swf")) return TikaWrapper.CONTENT_TYPE_SWF;
+		if (lower.endsWith(".html") || lower.endsWith(".htm")) return TikaWrapper.CONTENT_TYPE_HTML;
+		return null;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.TikaExtractor;
+
+/**
+ * Extraction of each document of the corpus with Tika, for each output format which applies to any content type.
+ * The formats extracting the main text of html pages are measured by {@link HtmlMainTextBenchmark}.
+ * <p/>
+ * Throughput gives documents per second, sample time gives the latency distribution of each document, 
+ * the allocation rate is given by the gc profiler (<code>-prof gc</code>).
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatBenchmark {
+
+	@Param({"en.pdf", "fr.pdf", "java.pdf", "Test.doc", "Test.docx", "annual_gold_price_from_1900.xls", 
+		"australia_output.xlsx", "html/f1-psychodrame-chez-red-bull.html", "Test.swf", "reflection.swf"})
+	public String document;
+
+	// values of TikaWrapper.OUTPUT_FORMAT_XML, _HTML, _TEXT, _TEXT_MAIN and _METADATA
+	@Param({"xml", "html", "text", "text_main", "metadata"})
+	public String format;
+
+	private byte[] content;
+	private String contentType;
+	private TikaExtractor extractor;
+
+	@Setup
+	public void setup() throws Exception {
+		content = Corpus.load(document);
+		contentType = Corpus.getContentType(document);
+		extractor = new TikaExtractor(format);
+	}
+
+	@Benchmark
+	public ExtractionResult extract() throws Exception {
+		return extractor.extract(new ByteArrayInputStream(content), contentType);
+	}
+}
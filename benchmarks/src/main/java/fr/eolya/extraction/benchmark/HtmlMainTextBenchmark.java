@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+/**
+ * Extraction of the html article of the corpus for every output format, including the main text 
+ * extraction by snacktory and boilerpipe.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlMainTextBenchmark {
+
+	// values of the TikaWrapper.OUTPUT_FORMAT_* constants
+	@Param({"xml", "html", "text", "text_main", "text_main_snacktory", 
+		"text_main_boilerpipe_default", "text_main_boilerpipe_article", "text_main_boilerpipe_canola", "metadata"})
+	public String format;
+
+	private byte[] content;
+	private TikaExtractor extractor;
+
+	@Setup
+	public void setup() throws Exception {
+		content = Corpus.load("html/f1-psychodrame-chez-red-bull.html");
+		extractor = new TikaExtractor(format);
+	}
+
+	@Benchmark
+	public ExtractionResult extract() throws Exception {
+		return extractor.extract(new ByteArrayInputStream(content), TikaWrapper.CONTENT_TYPE_HTML);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+/**
+ * Extraction of the pdf documents of the corpus with Tika (PDFBox) and with pdftotext. 
+ * The path of pdftotext is given by the <code>pdftotext</code> system property (default <code>/usr/bin/pdftotext</code>).
+ * <p/>
+ * The benchmark checks that the expected route was used, so that a missing pdftotext does not 
+ * silently measure Tika twice.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfRouteBenchmark {
+
+	@Param({"en.pdf", "fr.pdf", "java.pdf"})
+	public String document;
+
+	@Param({TikaExtractor.ROUTE_TIKA, TikaExtractor.ROUTE_PDFTOTEXT})
+	public String route;
+
+	// values of TikaWrapper.OUTPUT_FORMAT_TEXT, _HTML and _METADATA
+	@Param({"text", "html", "metadata"})
+	public String format;
+
+	private byte[] content;
+	private TikaExtractor extractor;
+
+	@Setup
+	public void setup() throws Exception {
+		content = Corpus.load(document);
+		extractor = new TikaExtractor(format);
+		if (TikaExtractor.ROUTE_PDFTOTEXT.equals(route)) {
+			String path = System.getProperty("pdftotext", "/usr/bin/pdftotext");
+			if (!new File(path).canExecute()) throw new IllegalStateException("pdftotext not found : " + path + " (set -Dpdftotext=<path>)");
+			extractor.setPdfToTextPath(path);
+		}
+		String used = extract().getRoute();
+		if (!route.equals(used)) throw new IllegalStateException("Expected route " + route + " but was " + used);
+	}
+
+	@Benchmark
+	public ExtractionResult extract() throws Exception {
+		return extractor.extract(new ByteArrayInputStream(content), TikaWrapper.CONTENT_TYPE_PDF);
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.eolya.extraction.tika.ExtractionJson;
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.MemoryBudget;
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+/**
+ * Extracts a directory tree or a list of files in parallel and writes the results as JSON Lines.
+ * <p/>
+ * Each line holds the path, size, route, metadata and text of one file, or the error raised by its 
+ * extraction. When a manifest is given, the files whose size and modification time did not change 
+ * since the previous run are skipped and the manifest is updated at the end of the run.
+ * <p/>
+ * Usage : <code>BatchExtractor [options] (directory | @filelist)...</code>
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class BatchExtractor {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final TikaExtractor extractor;
+	private final int threads;
+	private final int queueSize;
+	private Path manifest = null;
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param extractor the extractor, shared by the workers
+	 * @param threads the number of workers
+	 * @param queueSize the number of files waiting for a worker, the walk of the files is blocked beyond
+	 */
+	public BatchExtractor(TikaExtractor extractor, int threads, int queueSize) {
+		this.extractor = extractor;
+		this.threads = threads;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @param manifest the file holding the size and modification time of the files of the previous run, 
+	 *                 or <code>null</code> in order to extract all the files
+	 */
+	public void setManifest(Path manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Extract all the files of the given directories or files
+	 * @param paths directories, walked recursively, or files
+	 * @param output the JSON Lines sink, not closed by this method
+	 */
+	public void run(List<Path> paths, Writer output) throws IOException, InterruptedException {
+		final Map<String, String> previous = readManifest();
+		final Map<String, String> current = new ConcurrentHashMap<String, String>();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final Semaphore slots = new Semaphore(threads + queueSize);
+		final Writer sink = output;
+		try {
+			for (Path path : paths) {
+				Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) throws IOException {
+						if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+						final String key = file.toAbsolutePath().toString();
+						final String state = attrs.size() + "\t" + attrs.lastModifiedTime().toMillis();
+						current.put(key, state);
+						if (state.equals(previous.get(key))) {
+							skipped.incrementAndGet();
+							return FileVisitResult.CONTINUE;
+						}
+						try {
+							slots.acquire();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return FileVisitResult.TERMINATE;
+						}
+						executor.execute(new Runnable() {
+							public void run() {
+								try {
+									String line;
+									try {
+										// the content type is sniffed by the extractor
+										ExtractionResult result = extractor.extract(file, null);
+										line = line(file, key, result);
+										if (result.isTimedOut() || result.isParseFailed() || result.getDroppedEmbedded() > 0) {
+											// incomplete, not recorded in the manifest in order to be retried by the next run
+											current.remove(key);
+											failed.incrementAndGet();
+										} else {
+											processed.incrementAndGet();
+										}
+									} catch (Exception e) {
+										// not recorded in the manifest in order to be retried by the next run
+										current.remove(key);
+										failed.incrementAndGet();
+										line = error(key, e);
+									}
+									synchronized (sink) {
+										sink.write(line);
+										sink.write('\n');
+									}
+								} catch (IOException e) {
+									// the output failed, the file is extracted again by the next run
+									current.remove(key);
+								} finally {
+									slots.release();
+								}
+							}
+						});
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) {
+						failed.incrementAndGet();
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			synchronized (sink) {
+				sink.flush();
+			}
+		}
+		writeManifest(current);
+	}
+
+	/**
+	 * @return the JSON line of a file
+	 */
+	private static String line(Path file, String key, ExtractionResult result) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"path\":");
+		ExtractionJson.appendJson(sb, key);
+		sb.append(",\"size\":").append(Files.size(file));
+		ExtractionJson.appendResult(sb, result);
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @return the JSON line of a file which could not be extracted
+	 */
+	private static String error(String key, Exception e) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"path\":");
+		ExtractionJson.appendJson(sb, key);
+		sb.append(",\"error\":");
+		ExtractionJson.appendJson(sb, String.valueOf(e.getMessage()));
+		return sb.append('}').toString();
+	}
+
+	private Map<String, String> readManifest() throws IOException {
+		Map<String, String> entries = new HashMap<String, String>();
+		if (manifest==null || !Files.exists(manifest)) return entries;
+		BufferedReader reader = Files.newBufferedReader(manifest, UTF8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab!=-1) entries.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+		} finally {
+			reader.close();
+		}
+		return entries;
+	}
+
+	private void writeManifest(Map<String, String> entries) throws IOException {
+		if (manifest==null) return;
+		Path tmp = Paths.get(manifest.toString() + ".tmp");
+		BufferedWriter writer = Files.newBufferedWriter(tmp, UTF8);
+		try {
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				writer.write(entry.getKey());
+				writer.write('\t');
+				writer.write(entry.getValue());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp, manifest, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return the number of files extracted
+	 */
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	/**
+	 * @return the number of files unchanged since the previous run
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return the number of files which could not be extracted or whose extraction timed out, failed to parse 
+	 *         or dropped embedded documents
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	private static void usage() {
+		System.err.println("Usage : BatchExtractor [options] (directory | file | @filelist)...");
+		System.err.println("  -format <format>      output format (default text)");
+		System.err.println("  -threads <n>          number of workers (default number of processors)");
+		System.err.println("  -queue <n>            number of files waiting for a worker (default 2 x threads)");
+		System.err.println("  -output <file>        JSON Lines output (default standard output)");
+		System.err.println("  -manifest <file>      skip the files unchanged since the previous run");
+		System.err.println("  -timeout <ms>         maximum duration of the extraction of a file");
+		System.err.println("  -writelimit <n>       maximum number of characters extracted from a file");
+		System.err.println("  -embedded <depth>     extract the embedded documents as separate results up to this depth");
+		System.err.println("  -memory <MB>          memory budget of the concurrent extractions");
+		System.err.println("  -metas <names>        comma separated metadata fields to output (default all)");
+		System.err.println("  -pdftotext <path>     use pdftotext for pdf files");
+		System.err.println("  -swf2html <path>      use swf2html for swf files");
+		System.err.println("  -djvutxt <path>       use djvutxt for djvu files");
+		System.err.println("  -temp <directory>     scratch directory");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String format = TikaWrapper.OUTPUT_FORMAT_TEXT;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int queue = -1;
+		String outputFile = null;
+		String manifestFile = null;
+		long timeout = 0;
+		int writeLimit = -1;
+		String pdfToText = null, swfToHtml = null, djVuText = null, temp = null;
+		String metas = null;
+		int embedded = 0;
+		long memory = 0;
+		List<Path> paths = new ArrayList<Path>();
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("-") && i + 1 >= args.length) usage();
+			if ("-format".equals(arg)) format = args[++i];
+			else if ("-threads".equals(arg)) threads = Integer.parseInt(args[++i]);
+			else if ("-queue".equals(arg)) queue = Integer.parseInt(args[++i]);
+			else if ("-output".equals(arg)) outputFile = args[++i];
+			else if ("-manifest".equals(arg)) manifestFile = args[++i];
+			else if ("-timeout".equals(arg)) timeout = Long.parseLong(args[++i]);
+			else if ("-writelimit".equals(arg)) writeLimit = Integer.parseInt(args[++i]);
+			else if ("-embedded".equals(arg)) embedded = Integer.parseInt(args[++i]);
+			else if ("-memory".equals(arg)) memory = Long.parseLong(args[++i]);
+			else if ("-metas".equals(arg)) metas = args[++i];
+			else if ("-pdftotext".equals(arg)) pdfToText = args[++i];
+			else if ("-swf2html".equals(arg)) swfToHtml = args[++i];
+			else if ("-djvutxt".equals(arg)) djVuText = args[++i];
+			else if ("-temp".equals(arg)) temp = args[++i];
+			else if (arg.startsWith("-")) usage();
+			else if (arg.startsWith("@")) {
+				for (String line : Files.readAllLines(Paths.get(arg.substring(1)), UTF8)) {
+					if (!"".equals(line.trim())) paths.add(Paths.get(line.trim()));
+				}
+			}
+			else paths.add(Paths.get(arg));
+		}
+		if (paths.isEmpty()) usage();
+
+		TikaExtractor extractor = new TikaExtractor(format);
+		extractor.setTimeout(timeout);
+		extractor.setWriteLimit(writeLimit);
+		extractor.setPdfToTextPath(pdfToText);
+		extractor.setSwfToHtmlPath(swfToHtml);
+		extractor.setDjVuTextPath(djVuText);
+		extractor.setTempPath(temp);
+		extractor.setMaxEmbeddedDepth(embedded);
+		if (metas!=null) extractor.setMetadataFields(metas.split(","));
+		if (memory > 0) extractor.setMemoryBudget(new MemoryBudget(memory * 1024 * 1024));
+
+		BatchExtractor batch = new BatchExtractor(extractor, threads, queue < 0 ? 2 * threads : queue);
+		if (manifestFile!=null) batch.setManifest(new File(manifestFile).toPath());
+
+		Writer output = new BufferedWriter(outputFile!=null ? Files.newBufferedWriter(Paths.get(outputFile), UTF8) : new OutputStreamWriter(System.out, UTF8));
+		try {
+			batch.run(paths, output);
+		} finally {
+			output.close();
+		}
+		System.err.println("processed: " + batch.getProcessed() + ", skipped: " + batch.getSkipped() + ", failed: " + batch.getFailed());
+	}
+}
@@ -0,0 +1,813 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.htmlformater;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+import org.jsoup.nodes.Entities;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * HTML to plain-text formatter with the same rules as {@link HtmlToPlaintTextSimple} (line break after 
+ * paragraphs, titles and br, bullets for list items, links after their text, word wrap), 
+ * without building a DOM.
+ * <p/>
+ * The html is tokenized as it is read and the text is written to the output as it is produced. 
+ * The elements closed implicitly (a paragraph followed by a block, an unclosed link) are tracked 
+ * with a stack of the elements which matter for the formatting. The same formatting is driven by the 
+ * SAX events of a parser with {@link #getContentHandler(Appendable)}. The wrap width and the rendering 
+ * of the links can be set, an instance can be shared by several threads once configured.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class HtmlToPlaintTextStreaming implements IHtmlFormater {
+
+	private static final String[] HEADINGS = { "h1", "h2", "h3", "h4", "h5", "h6" };
+
+	/**
+	 * Elements starting a block, which close an open paragraph
+	 */
+	private static final String[] CLOSE_P = { "p", "h1", "h2", "h3", "h4", "h5", "h6", "div", "ul", "ol", "li", "dl", "dd", "dt", 
+		"pre", "listing", "form", "blockquote", "address", "article", "aside", "center", "details", "dir", "fieldset", "figcaption", 
+		"figure", "footer", "header", "hgroup", "menu", "nav", "section", "summary", "main", "hr", "xmp", "plaintext" };
+
+	/**
+	 * Elements tracked until they are closed : the end of their content is the end of the elements opened inside
+	 */
+	private static final String[] TRACKED = { "p", "h1", "h2", "h3", "h4", "h5", "h6", "a", "div", "ul", "ol", "li", "dl", "dd", "dt", 
+		"pre", "listing", "form", "blockquote", "address", "article", "aside", "center", "details", "dir", "fieldset", "figcaption", 
+		"figure", "footer", "header", "hgroup", "menu", "nav", "section", "summary", "main", "table", "tr", "td", "th", "caption" };
+
+	/**
+	 * Elements whose content is not markup, the content of script and style is ignored
+	 */
+	private static final String[] RAW_TEXT = { "script", "style", "xmp", "iframe", "noembed", "noframes" };
+	private static final String[] ESCAPABLE_RAW_TEXT = { "title", "textarea" };
+
+	private int wrapWidth = 80;
+	private boolean links = true;
+	private String baseUri = null;
+
+	/**
+	 * @param wrapWidth the maximum length of the lines, or 0 in order not to wrap the text (default 80)
+	 */
+	public void setWrapWidth(int wrapWidth) {
+		this.wrapWidth = wrapWidth;
+	}
+
+	public int getWrapWidth() {
+		return wrapWidth;
+	}
+
+	/**
+	 * @param links <code>true</code> in order to write the absolute url of each link after its text (default)
+	 */
+	public void setLinks(boolean links) {
+		this.links = links;
+	}
+
+	public boolean isLinks() {
+		return links;
+	}
+
+	/**
+	 * @param baseUri the url the relative links are resolved against, a relative link is written as 
+	 *                an empty url if neither this url nor a base element is set
+	 */
+	public void setBaseUri(String baseUri) {
+		this.baseUri = baseUri;
+	}
+
+	public String getBaseUri() {
+		return baseUri;
+	}
+
+	@Override
+	public String getSignature() {
+		return getClass().getName() + "(" + wrapWidth + "," + links + "," + baseUri + ")";
+	}
+
+	/**
+	 * {@inheritDoc} 
+	 */
+	public String getPlainText(String html) {
+		StringBuilder output = new StringBuilder(html.length() / 2);
+		try {
+			format(new StringReader(html), output);
+		} catch (IOException e) {
+			// not thrown by a string
+			throw new IllegalStateException(e);
+		}
+		return output.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void format(Reader html, Appendable output) throws IOException {
+		new Formatter(html, output).run();
+	}
+
+	/**
+	 * {@inheritDoc} 
+	 * <p/>
+	 * The events drive the same formatting as the html markup, without serializing them. The content of the 
+	 * head, script and style elements is ignored.
+	 */
+	public ContentHandler getContentHandler(Appendable output) {
+		return new FormattingHandler(output);
+	}
+
+	/**
+	 * Formats the SAX events of an (X)HTML document
+	 */
+	private final class FormattingHandler extends DefaultHandler {
+
+		private final Formatter formatter;
+		// depth in the elements whose content is ignored
+		private int ignored = 0;
+
+		FormattingHandler(Appendable output) {
+			this.formatter = new Formatter(null, output);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			String elementName = localName!=null && localName.length() > 0 ? localName : qName;
+			if (ignored > 0 || "head".equals(elementName) || "script".equals(elementName) || "style".equals(elementName)) {
+				ignored++;
+				return;
+			}
+			String tag = canonical(elementName.toLowerCase(Locale.ROOT));
+			if (tag==null) return;
+			try {
+				formatter.flushText();
+				formatter.body = true;
+				formatter.openElement(tag, tag=="a" || tag=="base" ? attributes.getValue("href") : null);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			if (ignored > 0) {
+				ignored--;
+				return;
+			}
+			String elementName = localName!=null && localName.length() > 0 ? localName : qName;
+			String tag = canonical(elementName.toLowerCase(Locale.ROOT));
+			if (tag==null) return;
+			try {
+				formatter.flushText();
+				formatter.closeElement(tag);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (ignored > 0) return;
+			for (int i = start; i < start + length; i++) {
+				formatter.appendText(ch[i]);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			characters(ch, start, length);
+		}
+
+		@Override
+		public void endDocument() throws SAXException {
+			try {
+				formatter.finish();
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+	}
+
+	/**
+	 * The state of one formatting
+	 */
+	private final class Formatter {
+
+		private final Reader input;
+		private final Appendable output;
+		private final char[] buffer = new char[8192];
+		private int position = 0;
+		private int limit = 0;
+		private int pushedBack = -1;
+
+		// the current text node, decoded and with its whitespace collapsed
+		private final StringBuilder text = new StringBuilder(256);
+		private boolean pendingSpace = false;
+
+		private final StringBuilder name = new StringBuilder(16);
+		private final StringBuilder attributeName = new StringBuilder(16);
+		private final StringBuilder attributeValue = new StringBuilder(64);
+		private final StringBuilder entity = new StringBuilder(16);
+		private final StringBuilder link = new StringBuilder(64);
+
+		// the elements before the body are ignored
+		boolean body = false;
+		// a link closed with the paragraph it was opened in goes on after the paragraph
+		private String reopenedHref = null;
+		private boolean reopen = false;
+
+		private String[] stack = new String[32];
+		private int depth = 0;
+		private String href = null;
+		private String base;
+
+		// the output
+		private int width = 0;
+		private int last = -1;
+
+		Formatter(Reader input, Appendable output) {
+			this.input = input;
+			this.output = output;
+			this.base = baseUri;
+		}
+
+		void run() throws IOException {
+			int c;
+			while ((c = read()) != -1) {
+				if (c=='<') {
+					int next = read();
+					if (next=='/') {
+						flushText();
+						endTag();
+					} else if (isLetter(next)) {
+						flushText();
+						unread(next);
+						startTag();
+					} else if (next=='!' || next=='?') {
+						// comment, doctype or processing instruction
+						flushText();
+						skipMarkupDeclaration(next=='!');
+					} else {
+						appendText('<');
+						if (next!=-1) unread(next);
+					}
+				} else if (c=='&') {
+					characterReference(false);
+				} else {
+					appendText((char) c);
+				}
+			}
+			finish();
+		}
+
+		/**
+		 * Close the elements left open
+		 */
+		void finish() throws IOException {
+			flushText();
+			while (depth > 0) {
+				tail(stack[--depth]);
+			}
+		}
+
+		// ---- input
+
+		private int read() throws IOException {
+			if (pushedBack!=-1) {
+				int c = pushedBack;
+				pushedBack = -1;
+				return c;
+			}
+			if (position==limit) {
+				limit = input.read(buffer, 0, buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position++];
+		}
+
+		private void unread(int c) {
+			pushedBack = c;
+		}
+
+		private void skipTo(char end) throws IOException {
+			int c;
+			while ((c = read()) != -1 && c!=end);
+		}
+
+		// ---- text
+
+		void appendText(char c) {
+			if (c==' ' || c=='\t' || c=='\n' || c=='\f' || c=='\r') {
+				if (!pendingSpace) {
+					text.append(' ');
+					pendingSpace = true;
+				}
+			} else {
+				text.append(c);
+				pendingSpace = false;
+			}
+		}
+
+		private void appendText(int codePoint) {
+			if (Character.isSupplementaryCodePoint(codePoint)) {
+				text.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+				pendingSpace = false;
+			} else {
+				appendText((char) codePoint);
+			}
+		}
+
+		void flushText() throws IOException {
+			if (text.length() > 0) {
+				if (!body && !(text.length()==1 && text.charAt(0)==' ')) body = true;
+				if (reopen && body) {
+					reopen = false;
+					push("a");
+					href = reopenedHref;
+				}
+				append(text);
+				text.setLength(0);
+			}
+			pendingSpace = false;
+		}
+
+		/**
+		 * Decode a character reference, the <code>&amp;</code> being read. An unknown reference is kept as is.
+		 */
+		private void characterReference(boolean inAttribute) throws IOException {
+			StringBuilder target = inAttribute ? attributeValue : null;
+			entity.setLength(0);
+			int c = read();
+			if (c=='#') {
+				int next = read();
+				boolean hex = next=='x' || next=='X';
+				if (!hex) unread(next);
+				int codePoint = 0;
+				int digits = 0;
+				while ((c = read())!=-1) {
+					int digit = Character.digit(c, hex ? 16 : 10);
+					if (digit < 0) break;
+					if (codePoint <= Character.MAX_CODE_POINT) codePoint = codePoint * (hex ? 16 : 10) + digit;
+					digits++;
+				}
+				if (digits==0) {
+					// not a reference
+					emit(target, '&');
+					emit(target, '#');
+					if (hex) emit(target, (char) next);
+					if (c!=-1) unread(c);
+					return;
+				}
+				if (c!=';' && c!=-1) unread(c);
+				if (codePoint==0 || codePoint > Character.MAX_CODE_POINT || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) codePoint = 0xFFFD;
+				if (target!=null) target.appendCodePoint(codePoint);
+				else appendText(codePoint);
+				return;
+			}
+			while (c!=-1 && (isLetter(c) || (c >= '0' && c <= '9'))) {
+				entity.append((char) c);
+				c = read();
+			}
+			boolean semicolon = c==';';
+			if (!semicolon && c!=-1) unread(c);
+			Character character = null;
+			if (entity.length() > 0) {
+				String entityName = entity.toString();
+				if (Entities.isBaseNamedEntity(entityName) || (semicolon && Entities.isNamedEntity(entityName))) {
+					// in an attribute, a reference without semicolon followed by = or a letter is text
+					if (!(inAttribute && !semicolon && (c=='=' || isLetter(c)))) character = Entities.getCharacterByName(entityName);
+				}
+			}
+			if (character!=null) {
+				emit(target, character.charValue());
+			} else {
+				emit(target, '&');
+				for (int i = 0; i < entity.length(); i++) {
+					emit(target, entity.charAt(i));
+				}
+				if (semicolon) emit(target, ';');
+			}
+		}
+
+		private void emit(StringBuilder target, char c) {
+			if (target!=null) target.append(c);
+			else appendText(c);
+		}
+
+		// ---- tags
+
+		private void startTag() throws IOException {
+			int c = readName(name);
+			String tag = canonical(name);
+			boolean captureHref = "a"==tag || "base"==tag;
+			String tagHref = null;
+			// attributes
+			while (c!=-1 && c!='>') {
+				if (isWhitespace(c) || c=='/') {
+					c = read();
+					continue;
+				}
+				attributeName.setLength(0);
+				while (c!=-1 && !isWhitespace(c) && c!='=' && c!='>' && c!='/') {
+					attributeName.append(Character.toLowerCase((char) c));
+					c = read();
+				}
+				while (isWhitespace(c)) c = read();
+				if (c!='=') continue;
+				c = read();
+				while (isWhitespace(c)) c = read();
+				boolean capture = captureHref && tagHref==null && HtmlToPlaintTextStreaming.equals(attributeName, "href");
+				attributeValue.setLength(0);
+				if (c=='"' || c=='\'') {
+					int quote = c;
+					while ((c = read())!=-1 && c!=quote) {
+						if (capture && c=='&') characterReference(true);
+						else if (capture) attributeValue.append((char) c);
+					}
+					c = read();
+				} else {
+					while (c!=-1 && !isWhitespace(c) && c!='>') {
+						if (capture && c=='&') characterReference(true);
+						else if (capture) attributeValue.append((char) c);
+						c = read();
+					}
+				}
+				if (capture) tagHref = attributeValue.toString();
+			}
+			if (!body && !inHead(name)) body = true;
+			if (tag==null) return;
+
+			openElement(tag, tagHref);
+
+			if (in(tag, RAW_TEXT)) {
+				rawText(tag, tag!="script" && tag!="style", false);
+			} else if (in(tag, ESCAPABLE_RAW_TEXT)) {
+				rawText(tag, true, true);
+			}
+		}
+
+		/**
+		 * Write what precedes the content of an element and track it
+		 * @param tag the canonical tag name
+		 * @param tagHref the href attribute of a link or base element, or <code>null</code>
+		 */
+		void openElement(String tag, String tagHref) throws IOException {
+			if (tag=="br") {
+				append("\n");
+			} else if (tag=="base") {
+				if (base==null && tagHref!=null) {
+					String absolute = absoluteUrl(null, tagHref);
+					if (absolute.length() > 0) base = absolute;
+				}
+			} else if (tag=="a") {
+				if (isOpen("a")) closeUntil("a");
+				reopen = false;
+				push(tag);
+				href = tagHref;
+			} else {
+				if (in(tag, CLOSE_P) && isOpen("p")) closeUntil("p");
+				if (in(tag, HEADINGS) && depth > 0 && in(stack[depth - 1], HEADINGS)) tail(stack[--depth]);
+				if (tag=="li" && isListItemOpen()) closeUntil("li");
+				if (in(tag, TRACKED)) push(tag);
+				if (tag=="li") append("\n * ");
+			}
+		}
+
+		private void endTag() throws IOException {
+			int c = read();
+			if (!isLetter(c)) {
+				// </> or a bogus comment
+				if (c!='>' && c!=-1) skipTo('>');
+				return;
+			}
+			unread(c);
+			c = readName(name);
+			if (c!='>') skipTo('>');
+			String tag = canonical(name);
+			if (tag!=null) closeElement(tag);
+		}
+
+		/**
+		 * Close an element and the elements opened inside
+		 * @param tag the canonical tag name
+		 */
+		void closeElement(String tag) throws IOException {
+			if (tag=="br") {
+				append("\n");
+			} else if (tag=="p") {
+				// an end tag without paragraph makes an empty paragraph
+				if (isOpen("p")) closeUntil("p");
+				else if (body) append("\n\n");
+			} else if (in(tag, HEADINGS)) {
+				for (int i = depth - 1; i >= 0; i--) {
+					if (in(stack[i], HEADINGS)) {
+						closeUntil(stack[i]);
+						break;
+					}
+				}
+			} else if (tag=="a") {
+				reopen = false;
+				if (isOpen(tag)) closeUntil(tag);
+			} else if (in(tag, TRACKED) && isOpen(tag)) {
+				closeUntil(tag);
+			}
+		}
+
+		/**
+		 * Read the content of an element up to its end tag
+		 * @param keep <code>true</code> in order to make a text node of the content
+		 * @param decode <code>true</code> in order to decode the character references
+		 */
+		private void rawText(String tag, boolean keep, boolean decode) throws IOException {
+			int c;
+			while ((c = read())!=-1) {
+				if (c=='<') {
+					int next = read();
+					if (next=='/') {
+						if (matchEndTag(tag, keep)) break;
+						continue;
+					}
+					if (keep) appendText('<');
+					if (next!=-1) unread(next);
+				} else if (c=='&' && decode) {
+					characterReference(false);
+				} else if (keep) {
+					appendText((char) c);
+				}
+			}
+			flushText();
+			if (isOpen(tag)) closeUntil(tag);
+		}
+
+		/**
+		 * @return <code>true</code> if the end tag of the given element follows, it is then read, otherwise the 
+		 *         characters read are written as text if the content is kept
+		 */
+		private boolean matchEndTag(String tag, boolean keep) throws IOException {
+			name.setLength(0);
+			int c = read();
+			while (c!=-1 && name.length() < tag.length() && Character.toLowerCase((char) c)==tag.charAt(name.length())) {
+				name.append((char) c);
+				c = read();
+			}
+			if (name.length()==tag.length() && (c==-1 || c=='>' || c=='/' || isWhitespace(c))) {
+				if (c!='>' && c!=-1) skipTo('>');
+				return true;
+			}
+			if (keep) {
+				appendText('<');
+				appendText('/');
+				for (int i = 0; i < name.length(); i++) {
+					appendText(name.charAt(i));
+				}
+			}
+			if (c!=-1) unread(c);
+			return false;
+		}
+
+		private void skipMarkupDeclaration(boolean declaration) throws IOException {
+			if (!declaration) {
+				skipTo('>');
+				return;
+			}
+			int c = read();
+			if (c!='-') {
+				if (c!='>' && c!=-1) skipTo('>');
+				return;
+			}
+			c = read();
+			if (c!='-') {
+				if (c!='>' && c!=-1) skipTo('>');
+				return;
+			}
+			// comment : up to -->
+			int dashes = 0;
+			while ((c = read())!=-1) {
+				if (c=='>' && dashes >= 2) return;
+				dashes = (c=='-') ? dashes + 1 : 0;
+			}
+		}
+
+		/**
+		 * Read a tag name in lower case
+		 * @return the character following the name
+		 */
+		private int readName(StringBuilder target) throws IOException {
+			target.setLength(0);
+			int c = read();
+			while (c!=-1 && !isWhitespace(c) && c!='/' && c!='>') {
+				target.append(Character.toLowerCase((char) c));
+				c = read();
+			}
+			return c;
+		}
+
+		// ---- open elements
+
+		private void push(String tag) {
+			if (depth==stack.length) {
+				String[] larger = new String[depth * 2];
+				System.arraycopy(stack, 0, larger, 0, depth);
+				stack = larger;
+			}
+			stack[depth++] = tag;
+		}
+
+		private boolean isOpen(String tag) {
+			for (int i = depth - 1; i >= 0; i--) {
+				if (stack[i]==tag) return true;
+				// a paragraph outside of a table cell is out of scope
+				if (stack[i]=="td" || stack[i]=="th" || stack[i]=="table" || stack[i]=="caption") return false;
+			}
+			return false;
+		}
+
+		private boolean isListItemOpen() {
+			for (int i = depth - 1; i >= 0; i--) {
+				if (stack[i]=="li") return true;
+				if (stack[i]!="div" && stack[i]!="address" && stack[i]!="p" && stack[i]!="a") return false;
+			}
+			return false;
+		}
+
+		private void closeUntil(String tag) throws IOException {
+			while (depth > 0) {
+				String closed = stack[--depth];
+				if (closed=="a" && tag!="a") {
+					reopen = true;
+					reopenedHref = href;
+				}
+				tail(closed);
+				if (closed==tag) return;
+			}
+		}
+
+		/**
+		 * Write what follows the content of an element
+		 */
+		private void tail(String tag) throws IOException {
+			if (tag=="p" || tag=="h1" || tag=="h2" || tag=="h3" || tag=="h4" || tag=="h5") {
+				append("\n\n");
+			} else if (tag=="a") {
+				if (links) {
+					link.setLength(0);
+					link.append(" <").append(href!=null ? absoluteUrl(base, href) : "").append('>');
+					append(link);
+				}
+				href = null;
+			}
+		}
+
+		// ---- output
+
+		/**
+		 * Write a text with a simple word wrap
+		 */
+		private void append(CharSequence s) throws IOException {
+			int length = s.length();
+			if (length > 0 && s.charAt(0)=='\n') width = 0;
+			// do not accumulate runs of spaces
+			if (length==1 && s.charAt(0)==' ' && (last==-1 || last==' ' || last=='\n')) return;
+
+			if (wrapWidth > 0 && length + width > wrapWidth) {
+				// the words are separated by one space, the spaces at the end are dropped
+				int end = length;
+				while (end > 0 && isSeparator(s.charAt(end - 1))) end--;
+				if (end==0) return;
+				int start = 0;
+				while (true) {
+					int stop = start;
+					while (stop < end && !isSeparator(s.charAt(stop))) stop++;
+					boolean lastWord = stop==end;
+					int wordLength = stop - start + (lastWord ? 0 : 1);
+					if (wordLength + width > wrapWidth) {
+						write('\n');
+						width = wordLength;
+					} else {
+						width += wordLength;
+					}
+					for (int i = start; i < stop; i++) {
+						write(s.charAt(i));
+					}
+					if (lastWord) break;
+					write(' ');
+					start = stop;
+					while (start < end && isSeparator(s.charAt(start))) start++;
+				}
+			} else {
+				output.append(s);
+				if (length > 0) last = s.charAt(length - 1);
+				width += length;
+			}
+		}
+
+		private void write(char c) throws IOException {
+			output.append(c);
+			last = c;
+		}
+	}
+
+	/**
+	 * @return the absolute url of a link, or an empty string if it cannot be resolved
+	 */
+	private static String absoluteUrl(String base, String href) {
+		try {
+			URL baseUrl;
+			try {
+				baseUrl = new URL(base);
+			} catch (MalformedURLException e) {
+				return new URL(href).toExternalForm();
+			}
+			if (href.startsWith("?")) href = baseUrl.getPath() + href;
+			return new URL(baseUrl, href).toExternalForm();
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * @return the constant holding the given tag name, or <code>null</code> if the element does not matter. 
+	 *         The tag names are compared by reference with these constants.
+	 */
+	private static String canonical(CharSequence name) {
+		String tag = find(name, TRACKED);
+		if (tag==null) tag = find(name, RAW_TEXT);
+		if (tag==null) tag = find(name, ESCAPABLE_RAW_TEXT);
+		if (tag==null && equals(name, "br")) tag = "br";
+		if (tag==null && equals(name, "base")) tag = "base";
+		if (tag==null && equals(name, "hr")) tag = "hr";
+		if (tag==null && equals(name, "plaintext")) tag = "plaintext";
+		return tag;
+	}
+
+	/**
+	 * @return <code>true</code> for the elements which do not start the body
+	 */
+	private static boolean inHead(CharSequence name) {
+		return equals(name, "html") || equals(name, "head") || equals(name, "title") || equals(name, "meta") || equals(name, "link") 
+				|| equals(name, "base") || equals(name, "script") || equals(name, "style") || equals(name, "noscript");
+	}
+
+	private static String find(CharSequence name, String[] tags) {
+		for (String tag : tags) {
+			if (equals(name, tag)) return tag;
+		}
+		return null;
+	}
+
+	private static boolean in(String tag, String[] tags) {
+		for (String t : tags) {
+			if (t==tag) return true;
+		}
+		return false;
+	}
+
+	private static boolean equals(CharSequence s, String value) {
+		if (s.length()!=value.length()) return false;
+		for (int i = 0; i < value.length(); i++) {
+			if (s.charAt(i)!=value.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c==' ' || c=='\t' || c=='\n' || c=='\f' || c=='\r';
+	}
+
+	/**
+	 * @return <code>true</code> for the characters separating the words when the text is wrapped
+	 */
+	private static boolean isSeparator(char c) {
+		return c==' ' || c=='\t' || c=='\n' || c==0x0B || c=='\f' || c=='\r';
+	}
+}
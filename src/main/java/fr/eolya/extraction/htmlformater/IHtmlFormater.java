@@ -15,6 +15,15 @@
  */
 package fr.eolya.extraction.htmlformater;
 
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.apache.tika.sax.ToHTMLContentHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
 /**
  * HTML to plain-text formatter. 
  *
@@ -28,4 +37,44 @@ public interface IHtmlFormater {
 	 * @return formatted text
 	 */
 	public String getPlainText(String html);
+
+	/**
+	 * @return the class and the settings of this formater which change its output, part of the key of the cached results
+	 */
+	public default String getSignature() {
+		return getClass().getName();
+	}
+
+	/**
+	 * Format an html stream to plain-text. The default implementation reads the whole html in memory.
+	 * @param html the html content to be formated, not closed by this method
+	 * @param output the sink of the formatted text
+	 */
+	public default void format(Reader html, Appendable output) throws IOException {
+		String text = getPlainText(IOUtils.toString(html));
+		if (text!=null) output.append(text);
+	}
+
+	/**
+	 * Format the SAX events of an (X)HTML document, such as the ones produced by the Tika parsers, to plain-text. 
+	 * The text is written to the output at the latest at the end of the document. The default implementation 
+	 * serializes the events to html in memory and formats it with {@link #getPlainText(String)}.
+	 * @param output the sink of the formatted text
+	 * @return the handler of the events of one document
+	 */
+	public default ContentHandler getContentHandler(final Appendable output) {
+		final ToHTMLContentHandler html = new ToHTMLContentHandler();
+		return new ContentHandlerDecorator(html) {
+			@Override
+			public void endDocument() throws SAXException {
+				super.endDocument();
+				String text = getPlainText(html.toString());
+				try {
+					if (text!=null) output.append(text);
+				} catch (IOException e) {
+					throw new SAXException(e);
+				}
+			}
+		};
+	}
 }
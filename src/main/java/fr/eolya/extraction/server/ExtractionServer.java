@@ -0,0 +1,462 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fr.eolya.extraction.tika.ExtractionJson;
+import fr.eolya.extraction.tika.ExtractionMetrics;
+import fr.eolya.extraction.tika.ExtractionMonitor;
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.MemoryBudget;
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+/**
+ * Extraction server built on the http server of the JDK, so that the processes of a host share one warm extractor.
+ * <p/>
+ * <code>POST /extract/&lt;format&gt;</code>, the format being one of the <code>TikaWrapper.OUTPUT_FORMAT_*</code> 
+ * values, extracts the request body. The content type and the charset are taken from the Content-Type header, the 
+ * content type is sniffed if it is missing. The text is streamed in the response body as it is extracted, the metadata 
+ * format returns a JSON object. When the extraction ends before the response is committed, the <code>X-Extraction-*</code> 
+ * headers tell whether the text is truncated or incomplete. A failure before the first bytes of the response are sent 
+ * gives a 500 response, a failure or an incomplete extraction (timed out, parse failed, dropped embedded documents) 
+ * afterwards aborts the connection. The connections are kept alive.
+ * <p/>
+ * At most <code>maxConcurrent</code> documents are extracted at once, the other requests get a 503 response 
+ * with a Retry-After header. <code>GET /health</code> and <code>GET /metrics</code> return JSON objects.
+ * <p/>
+ * Usage : <code>ExtractionServer [options]</code>
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ExtractionServer implements Closeable {
+
+	public static final String PATH_EXTRACT = "/extract/";
+	public static final String PATH_HEALTH = "/health";
+	public static final String PATH_METRICS = "/metrics";
+
+	/**
+	 * Headers of the state of an extraction, sent when it ends before the response is committed
+	 */
+	public static final String HEADER_TRUNCATED = "X-Extraction-Truncated";
+	public static final String HEADER_TIMED_OUT = "X-Extraction-Timed-Out";
+	public static final String HEADER_PARSE_FAILED = "X-Extraction-Parse-Failed";
+	public static final String HEADER_DROPPED_EMBEDDED = "X-Extraction-Dropped-Embedded";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the response is sent once this buffer is full, a failure before gives a 500 response
+	private static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+	private static final List<String> FORMATS = Arrays.asList(TikaWrapper.OUTPUT_FORMAT_XML, TikaWrapper.OUTPUT_FORMAT_HTML, 
+			TikaWrapper.OUTPUT_FORMAT_TEXT, TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED, TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN, 
+			TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY, TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_DEFAULT, 
+			TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE, TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_CANOLA, 
+			TikaWrapper.OUTPUT_FORMAT_METADATA);
+
+	private final TikaExtractor template;
+	private final Map<String, TikaExtractor> extractors = new ConcurrentHashMap<String, TikaExtractor>();
+	private final ExtractionMetrics metrics;
+	private final int maxConcurrent;
+	private final Semaphore slots;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final long started = System.currentTimeMillis();
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param template the extractor whose settings and shared objects are used by all the formats. 
+	 *        An {@link ExtractionMetrics} is set as its monitor if it has none.
+	 * @param address the address the server listens to
+	 * @param maxConcurrent the number of documents extracted at once
+	 */
+	public ExtractionServer(TikaExtractor template, InetSocketAddress address, int maxConcurrent) throws IOException {
+		if (template.getMonitor()==ExtractionMonitor.NOOP) template.setMonitor(new ExtractionMetrics());
+		this.metrics = template.getMonitor() instanceof ExtractionMetrics ? (ExtractionMetrics) template.getMonitor() : null;
+		this.template = template;
+		this.maxConcurrent = maxConcurrent;
+		this.slots = new Semaphore(maxConcurrent);
+		// the threads beyond maxConcurrent answer the health checks and the rejected requests
+		this.executor = Executors.newFixedThreadPool(2 * maxConcurrent + 2, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tika-server-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext(PATH_EXTRACT, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				boolean aborted = false;
+				try {
+					extract(exchange);
+				} catch (AbortedResponseException e) {
+					// closing the exchange would end the chunked body as if it were complete, 
+					// the server closes the connection instead
+					aborted = true;
+					throw e;
+				} finally {
+					if (!aborted) exchange.close();
+				}
+			}
+		});
+		server.createContext(PATH_HEALTH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					send(exchange, 200, "application/json", "{\"status\":\"ok\",\"active\":" + active.get() + ",\"maxConcurrent\":" + maxConcurrent + "}");
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.createContext(PATH_METRICS, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					send(exchange, 200, "application/json", getMetrics());
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stop the server, the extractions in progress are abandoned
+	 */
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the address the server listens to, with the actual port if the port 0 was given
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	private void extract(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		if (!"POST".equals(method) && !"PUT".equals(method)) {
+			send(exchange, 405, "text/plain", "Method not allowed");
+			return;
+		}
+		String format = exchange.getRequestURI().getPath().substring(PATH_EXTRACT.length());
+		if (!FORMATS.contains(format)) {
+			send(exchange, 404, "text/plain", "Unknown format : " + format);
+			return;
+		}
+		if (!slots.tryAcquire()) {
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			send(exchange, 503, "text/plain", "Too many concurrent extractions");
+			return;
+		}
+		active.incrementAndGet();
+		requests.incrementAndGet();
+		ResponseStream response = new ResponseStream(exchange);
+		try {
+			TikaExtractor extractor = getExtractor(format);
+			String contentType = getContentType(exchange.getRequestHeaders().getFirst("Content-Type"));
+			if (TikaWrapper.OUTPUT_FORMAT_METADATA.equals(format)) {
+				ExtractionResult result = extractor.extract(exchange.getRequestBody(), contentType);
+				setResultHeaders(exchange, result);
+				send(exchange, 200, "application/json", ExtractionJson.toJson(result));
+			} else {
+				exchange.getResponseHeaders().set("Content-Type", getMediaType(format) + "; charset=" + extractor.getEncoding());
+				ExtractionResult result = extractor.extract(exchange.getRequestBody(), contentType, response);
+				if (!response.isCommitted()) {
+					// the whole text is still buffered, the state of the extraction goes with the headers
+					setResultHeaders(exchange, result);
+				} else if (result.isTimedOut() || result.isParseFailed() || result.getDroppedEmbedded() > 0) {
+					// the headers are gone, only an aborted response tells the client that the text is incomplete
+					response.flush();
+					throw new AbortedResponseException("Incomplete extraction after the response was committed", null);
+				}
+				response.finish();
+			}
+		} catch (AbortedResponseException e) {
+			throw e;
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			if (response.isCommitted()) throw new AbortedResponseException("Extraction failed after the response was committed", e);
+			send(exchange, 500, "text/plain", String.valueOf(e.getMessage()));
+		} finally {
+			active.decrementAndGet();
+			slots.release();
+		}
+	}
+
+	private TikaExtractor getExtractor(String format) throws Exception {
+		if (format.equals(template.getOutputFormat())) return template;
+		TikaExtractor extractor = extractors.get(format);
+		if (extractor==null) {
+			extractor = template.withOutputFormat(format);
+			TikaExtractor previous = extractors.putIfAbsent(format, extractor);
+			if (previous!=null) extractor = previous;
+		}
+		return extractor;
+	}
+
+	/**
+	 * @return the value of a Content-Type header with its parameters, the charset being a hint for the decoding 
+	 *         of the text formats, or <code>null</code> if the content type has to be sniffed
+	 */
+	static String getContentType(String header) {
+		if (header==null) return null;
+		int semicolon = header.indexOf(';');
+		String contentType = (semicolon!=-1 ? header.substring(0, semicolon) : header).trim().toLowerCase(Locale.ROOT);
+		if ("".equals(contentType) || "application/octet-stream".equals(contentType)) return null;
+		return header.trim();
+	}
+
+	private static void setResultHeaders(HttpExchange exchange, ExtractionResult result) {
+		exchange.getResponseHeaders().set(HEADER_TRUNCATED, String.valueOf(result.isTruncated()));
+		exchange.getResponseHeaders().set(HEADER_TIMED_OUT, String.valueOf(result.isTimedOut()));
+		exchange.getResponseHeaders().set(HEADER_PARSE_FAILED, String.valueOf(result.isParseFailed()));
+		exchange.getResponseHeaders().set(HEADER_DROPPED_EMBEDDED, String.valueOf(result.getDroppedEmbedded()));
+	}
+
+	private static String getMediaType(String format) {
+		if (TikaWrapper.OUTPUT_FORMAT_HTML.equals(format)) return "text/html";
+		if (TikaWrapper.OUTPUT_FORMAT_XML.equals(format)) return "application/xml";
+		return "text/plain";
+	}
+
+	private static void send(HttpExchange exchange, int status, String mediaType, String body) throws IOException {
+		byte[] bytes = body.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", mediaType + "; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream output = exchange.getResponseBody();
+		output.write(bytes);
+		output.close();
+	}
+
+	/**
+	 * @return the counters of the server and the metrics of each route as a JSON object
+	 */
+	public String getMetrics() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"uptime\":").append(System.currentTimeMillis() - started);
+		sb.append(",\"maxConcurrent\":").append(maxConcurrent);
+		sb.append(",\"active\":").append(active.get());
+		sb.append(",\"requests\":").append(requests.get());
+		sb.append(",\"rejected\":").append(rejected.get());
+		sb.append(",\"failed\":").append(failed.get());
+		if (metrics!=null) {
+			sb.append(",\"routes\":{");
+			boolean first = true;
+			for (ExtractionMetrics.RouteMetrics route : metrics.getRoutes().values()) {
+				if (!first) sb.append(',');
+				first = false;
+				ExtractionJson.appendJson(sb, route.getRoute());
+				sb.append(":{\"extractions\":").append(route.getExtractions());
+				sb.append(",\"failures\":").append(route.getFailures());
+				sb.append(",\"timeouts\":").append(route.getTimeouts());
+				sb.append(",\"bytesIn\":").append(route.getBytesIn());
+				sb.append(",\"charsOut\":").append(route.getCharsOut());
+				sb.append(",\"timeMillis\":").append(route.getTimeMillis()).append('}');
+			}
+			sb.append("},\"contentTypes\":{");
+			first = true;
+			for (Map.Entry<String, Long> entry : metrics.getContentTypes().entrySet()) {
+				if (!first) sb.append(',');
+				first = false;
+				ExtractionJson.appendJson(sb, entry.getKey());
+				sb.append(':').append(entry.getValue());
+			}
+			sb.append('}');
+		}
+		return sb.append('}').toString();
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of requests rejected with a 503 response
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Failed or incomplete extraction after the status of its response was sent, the connection is then aborted
+	 */
+	private static class AbortedResponseException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		AbortedResponseException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * Response body whose status and headers are sent once the buffer is full, in chunks, or at the end 
+	 * with the length of the buffered body. The flushes of the extractor do not commit the response.
+	 */
+	private static class ResponseStream extends OutputStream {
+
+		private final HttpExchange exchange;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+		private OutputStream body = null;
+
+		ResponseStream(HttpExchange exchange) {
+			this.exchange = exchange;
+		}
+
+		boolean isCommitted() {
+			return body!=null;
+		}
+
+		private void commit() throws IOException {
+			exchange.sendResponseHeaders(200, 0);
+			body = exchange.getResponseBody();
+			buffer.writeTo(body);
+			buffer = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (body==null) {
+				if (buffer.size() + len <= RESPONSE_BUFFER_SIZE) {
+					buffer.write(b, off, len);
+					return;
+				}
+				commit();
+			}
+			body.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (body!=null) body.flush();
+		}
+
+		/**
+		 * End the response, with the length of the body if it was not committed
+		 */
+		void finish() throws IOException {
+			if (body==null) {
+				exchange.sendResponseHeaders(200, buffer.size()==0 ? -1 : buffer.size());
+				if (buffer.size() > 0) {
+					body = exchange.getResponseBody();
+					buffer.writeTo(body);
+				}
+			}
+			if (body!=null) body.close();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage : ExtractionServer [options]");
+		System.err.println("  -host <address>       address to listen to (default 127.0.0.1)");
+		System.err.println("  -port <port>          port to listen to (default 9998)");
+		System.err.println("  -concurrency <n>      number of documents extracted at once (default number of processors)");
+		System.err.println("  -timeout <ms>         maximum duration of the extraction of a document");
+		System.err.println("  -writelimit <n>       maximum number of characters extracted from a document");
+		System.err.println("  -memory <MB>          memory budget of the concurrent extractions");
+		System.err.println("  -metas <names>        comma separated metadata fields to output (default all)");
+		System.err.println("  -pdftotext <path>     use pdftotext for pdf files");
+		System.err.println("  -swf2html <path>      use swf2html for swf files");
+		System.err.println("  -djvutxt <path>       use djvutxt for djvu files");
+		System.err.println("  -temp <directory>     scratch directory");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = "127.0.0.1";
+		int port = 9998;
+		int concurrency = Runtime.getRuntime().availableProcessors();
+		long timeout = 0;
+		int writeLimit = -1;
+		String pdfToText = null, swfToHtml = null, djVuText = null, temp = null;
+		String metas = null;
+		long memory = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (i + 1 >= args.length) usage();
+			if ("-host".equals(arg)) host = args[++i];
+			else if ("-port".equals(arg)) port = Integer.parseInt(args[++i]);
+			else if ("-concurrency".equals(arg)) concurrency = Integer.parseInt(args[++i]);
+			else if ("-timeout".equals(arg)) timeout = Long.parseLong(args[++i]);
+			else if ("-writelimit".equals(arg)) writeLimit = Integer.parseInt(args[++i]);
+			else if ("-memory".equals(arg)) memory = Long.parseLong(args[++i]);
+			else if ("-metas".equals(arg)) metas = args[++i];
+			else if ("-pdftotext".equals(arg)) pdfToText = args[++i];
+			else if ("-swf2html".equals(arg)) swfToHtml = args[++i];
+			else if ("-djvutxt".equals(arg)) djVuText = args[++i];
+			else if ("-temp".equals(arg)) temp = args[++i];
+			else usage();
+		}
+
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setTimeout(timeout);
+		extractor.setWriteLimit(writeLimit);
+		extractor.setPdfToTextPath(pdfToText);
+		extractor.setSwfToHtmlPath(swfToHtml);
+		extractor.setDjVuTextPath(djVuText);
+		extractor.setTempPath(temp);
+		if (metas!=null) extractor.setMetadataFields(metas.split(","));
+		if (memory > 0) extractor.setMemoryBudget(new MemoryBudget(memory * 1024 * 1024));
+
+		ExtractionServer server = new ExtractionServer(extractor, new InetSocketAddress(host, port), concurrency);
+		server.start();
+		System.err.println("listening on " + server.getAddress());
+	}
+}
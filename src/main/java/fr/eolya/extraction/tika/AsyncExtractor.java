@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.io.TikaInputStream;
+
+/**
+ * Asynchronous front of a {@link TikaExtractor}.
+ * <p/>
+ * The documents are extracted by a fixed number of worker threads. At most <code>threads + queueSize</code> 
+ * documents are pending : {@link #submit(InputStream, String)} then blocks the caller until a document 
+ * completes and {@link #trySubmit(InputStream, String)} fails immediately.
+ * <p/>
+ * With {@link #setVirtualThreads(int)}, the documents whose declared content type goes to pdftotext, swf2html 
+ * or djvutxt are extracted by virtual threads (Java 21 or later) : waiting for the external process does not 
+ * hold a worker. The number of processes running at once is still bounded by the {@link ConverterPool}.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class AsyncExtractor implements Closeable {
+
+	private final TikaExtractor extractor;
+	private final ExecutorService workers;
+	private final Semaphore slots;
+	private final int capacity;
+
+	private ExecutorService virtualThreads = null;
+	private Semaphore virtualSlots = null;
+
+	/**
+	 * @param extractor the extractor, shared by the workers
+	 * @param threads the number of workers
+	 * @param queueSize the number of documents waiting for a worker
+	 */
+	public AsyncExtractor(TikaExtractor extractor, int threads, int queueSize) {
+		this.extractor = extractor;
+		this.capacity = threads + queueSize;
+		this.slots = new Semaphore(capacity);
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tika-async-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @return <code>true</code> if the JVM provides virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Extract the documents going to an external tool in virtual threads. Ignored if the JVM does not provide them.
+	 * @param maxPending the number of these documents pending at once, or 0 in order to extract them by the workers
+	 */
+	public synchronized void setVirtualThreads(int maxPending) {
+		if (virtualThreads!=null) virtualThreads.shutdown();
+		virtualThreads = null;
+		virtualSlots = null;
+		if (maxPending <= 0 || !isVirtualThreadSupported()) return;
+		try {
+			virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			virtualSlots = new Semaphore(maxPending);
+		} catch (Exception e) {
+			throw new IllegalStateException("Virtual threads not available", e);
+		}
+	}
+
+	public synchronized boolean isVirtualThreads() {
+		return virtualThreads!=null;
+	}
+
+	/**
+	 * Extract a document, waiting for a free slot if too many documents are pending
+	 * @param input the document, read by a worker and closed once extracted
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @return the result, completed exceptionally if the extraction failed
+	 */
+	public CompletableFuture<ExtractionResult> submit(InputStream input, String contentType) throws InterruptedException {
+		return submit(task(input, contentType), input, contentType, true);
+	}
+
+	/**
+	 * Extract a document stored in a file, waiting for a free slot if too many documents are pending
+	 * @see #submit(InputStream, String)
+	 */
+	public CompletableFuture<ExtractionResult> submit(Path path, String contentType) throws InterruptedException {
+		return submit(task(path, contentType), null, contentType, true);
+	}
+
+	/**
+	 * Extract a document if a slot is free
+	 * @return the result, completed exceptionally with a {@link RejectedExecutionException} if too many documents are pending
+	 * @see #submit(InputStream, String)
+	 */
+	public CompletableFuture<ExtractionResult> trySubmit(InputStream input, String contentType) {
+		try {
+			return submit(task(input, contentType), input, contentType, false);
+		} catch (InterruptedException e) {
+			// not thrown without waiting
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Extract a document stored in a file if a slot is free
+	 * @see #trySubmit(InputStream, String)
+	 */
+	public CompletableFuture<ExtractionResult> trySubmit(Path path, String contentType) {
+		try {
+			return submit(task(path, contentType), null, contentType, false);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Callable<ExtractionResult> task(final InputStream input, final String contentType) {
+		return new Callable<ExtractionResult>() {
+			public ExtractionResult call() throws Exception {
+				return extractor.extract(input, contentType);
+			}
+		};
+	}
+
+	private Callable<ExtractionResult> task(final Path path, final String contentType) {
+		return new Callable<ExtractionResult>() {
+			public ExtractionResult call() throws Exception {
+				return extractor.extract(TikaInputStream.get(path.toFile()), contentType);
+			}
+		};
+	}
+
+	/**
+	 * @param input the document read by the task, closed if the task is not accepted, or <code>null</code>
+	 */
+	private CompletableFuture<ExtractionResult> submit(final Callable<ExtractionResult> task, InputStream input, String contentType, 
+			boolean wait) throws InterruptedException {
+		ExecutorService executor = workers;
+		Semaphore permits = slots;
+		synchronized (this) {
+			if (virtualThreads!=null && extractor.isProcessRoute(contentType)) {
+				executor = virtualThreads;
+				permits = virtualSlots;
+			}
+		}
+		final CompletableFuture<ExtractionResult> future = new CompletableFuture<ExtractionResult>();
+		if (wait) {
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				IOUtils.closeQuietly(input);
+				throw e;
+			}
+		} else if (!permits.tryAcquire()) {
+			IOUtils.closeQuietly(input);
+			future.completeExceptionally(new RejectedExecutionException("Too many pending documents"));
+			return future;
+		}
+		final Semaphore acquired = permits;
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					ExtractionResult result = null;
+					Throwable failure = null;
+					try {
+						result = task.call();
+					} catch (Throwable t) {
+						failure = t;
+					}
+					// the slot is free before the callbacks of the future run
+					acquired.release();
+					if (failure!=null) future.completeExceptionally(failure);
+					else future.complete(result);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed
+			acquired.release();
+			IOUtils.closeQuietly(input);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @return the number of documents submitted and not yet extracted by the workers
+	 */
+	public int getPending() {
+		return capacity - slots.availablePermits();
+	}
+
+	/**
+	 * Stop accepting documents and wait for the pending ones to be extracted
+	 */
+	public void close() {
+		ExecutorService virtual;
+		synchronized (this) {
+			virtual = virtualThreads;
+		}
+		workers.shutdown();
+		if (virtual!=null) virtual.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			if (virtual!=null) virtual.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
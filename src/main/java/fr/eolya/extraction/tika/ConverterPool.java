@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of external converter processes (pdftotext, swf2html, djvutxt).
+ * <p/>
+ * At most <code>maxProcesses</code> converters run at the same time, the other extractions 
+ * wait in a FIFO queue until a slot is free or their deadline is exceeded. 
+ * One pool can be shared by several {@link TikaExtractor}.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ConverterPool {
+
+	static final File NULL_FILE = new File(System.getProperty("os.name").toLowerCase().startsWith("windows") ? "NUL" : "/dev/null");
+
+	private final int maxProcesses;
+	private final Semaphore slots;
+	private final ConcurrentMap<String, ConverterStats> stats = new ConcurrentHashMap<String, ConverterStats>();
+
+	/**
+	 * Creates a pool running as many processes as available processors
+	 */
+	public ConverterPool() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param maxProcesses maximum number of converter processes running at the same time
+	 */
+	public ConverterPool(int maxProcesses) {
+		if (maxProcesses < 1) throw new IllegalArgumentException("maxProcesses must be at least 1");
+		this.maxProcesses = maxProcesses;
+		this.slots = new Semaphore(maxProcesses, true);
+	}
+
+	/**
+	 * Wait for a free slot and start a converter. The standard output of the process is a pipe
+	 * read by the caller, the standard error is discarded.
+	 * @param tool the route name of the converter, used for the statistics
+	 * @param command the command and its arguments
+	 * @param context the extraction the command belongs to
+	 * @return the running process, to be closed by the caller
+	 * @throws ExtractionContext.DeadlineExceededException if the deadline is exceeded while waiting for a slot
+	 */
+	ConverterProcess start(String tool, List<String> command, ExtractionContext context) throws IOException, InterruptedException {
+		ConverterStats toolStats = getOrCreateStats(tool);
+		context.checkDeadline();
+		long queued = System.nanoTime();
+		if (!slots.tryAcquire(context.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+			toolStats.recordQueueWait(System.nanoTime() - queued);
+			context.expire();
+			throw new ExtractionContext.DeadlineExceededException();
+		}
+		toolStats.recordQueueWait(System.nanoTime() - queued);
+		context.stage(ExtractionMonitor.STAGE_QUEUE, queued);
+		try {
+			ProcessBuilder builder = new ProcessBuilder(command).redirectError(NULL_FILE);
+			return new ConverterProcess(this, toolStats, builder.start(), context);
+		} catch (IOException e) {
+			slots.release();
+			toolStats.recordExecution(0, true, false);
+			throw e;
+		}
+	}
+
+	void release() {
+		slots.release();
+	}
+
+	private ConverterStats getOrCreateStats(String tool) {
+		ConverterStats toolStats = stats.get(tool);
+		if (toolStats==null) {
+			ConverterStats created = new ConverterStats(tool);
+			toolStats = stats.putIfAbsent(tool, created);
+			if (toolStats==null) toolStats = created;
+		}
+		return toolStats;
+	}
+
+	public int getMaxProcesses() {
+		return maxProcesses;
+	}
+
+	/**
+	 * @return the number of converters currently running
+	 */
+	public int getRunning() {
+		return maxProcesses - slots.availablePermits();
+	}
+
+	/**
+	 * @return the number of extractions currently waiting for a slot
+	 */
+	public int getQueued() {
+		return slots.getQueueLength();
+	}
+
+	/**
+	 * @param tool the route name of the converter (<code>TikaExtractor.ROUTE_PDFTOTEXT</code>, ...)
+	 * @return the statistics of the converter, or <code>null</code> if it was never used
+	 */
+	public ConverterStats getStats(String tool) {
+		return stats.get(tool);
+	}
+
+	public Collection<ConverterStats> getStats() {
+		return Collections.unmodifiableCollection(stats.values());
+	}
+}
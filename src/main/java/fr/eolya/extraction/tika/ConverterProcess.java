@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A converter process started by a {@link ConverterPool}. Closing it kills the process if 
+ * it is still running, releases its slot and records its statistics.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class ConverterProcess implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ConverterPool pool;
+	private final ConverterStats stats;
+	private final Process process;
+	private final ExtractionContext context;
+	private final long started = System.nanoTime();
+
+	private Thread feeder = null;
+	private volatile IOException feedError = null;
+
+	private boolean exited = false;
+	private boolean failed = false;
+	private boolean closed = false;
+
+	ConverterProcess(ConverterPool pool, ConverterStats stats, Process process, ExtractionContext context) {
+		this.pool = pool;
+		this.stats = stats;
+		this.process = process;
+		this.context = context;
+		context.register(this);
+	}
+
+	/**
+	 * @return the standard output of the process
+	 */
+	InputStream getInputStream() {
+		return process.getInputStream();
+	}
+
+	/**
+	 * Write the document to the standard input of the process. The copy runs in its own thread 
+	 * as the caller has to read the standard output meanwhile.
+	 */
+	void feed(final InputStream input) {
+		feeder = new Thread(new Runnable() {
+			public void run() {
+				OutputStream stdin = process.getOutputStream();
+				try {
+					IOUtils.copyLarge(input, stdin, new byte[BUFFER_SIZE]);
+				} catch (IOException e) {
+					feedError = e;
+				} finally {
+					IOUtils.closeQuietly(stdin);
+				}
+			}
+		}, "converter-feeder");
+		feeder.setDaemon(true);
+		feeder.start();
+	}
+
+	/**
+	 * Wait for the end of the process within the deadline of the extraction
+	 * @return the exit value of the process
+	 * @throws ExtractionContext.DeadlineExceededException if the deadline is exceeded
+	 */
+	int waitFor() throws IOException, InterruptedException {
+		if (feeder==null) IOUtils.closeQuietly(process.getOutputStream());
+		if (!context.hasDeadline()) {
+			process.waitFor();
+		} else if (!process.waitFor(context.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+			context.expire();
+			throw new ExtractionContext.DeadlineExceededException();
+		}
+		exited = true;
+		if (feeder!=null) {
+			feeder.join();
+			if (feedError!=null) throw feedError;
+		}
+		int exitValue = process.exitValue();
+		failed = (exitValue!=0);
+		return exitValue;
+	}
+
+	/**
+	 * Kill the process and, when the JVM allows it (Java 9+), its descendants as the
+	 * configured path of a converter may be a wrapper script.
+	 */
+	void destroy() {
+		try {
+			Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+			Method destroyForcibly = handleClass.getMethod("destroyForcibly");
+			Object handle = Process.class.getMethod("toHandle").invoke(process);
+			Object descendants = handleClass.getMethod("descendants").invoke(handle);
+			for (Object descendant : ((Stream<?>) descendants).toArray()) {
+				destroyForcibly.invoke(descendant);
+			}
+		} catch (Exception e) {
+			// Java 8, only the process itself can be killed
+		}
+		process.destroyForcibly();
+	}
+
+	public void close() {
+		if (closed) return;
+		closed = true;
+		if (!exited) destroy();
+		IOUtils.closeQuietly(process.getInputStream());
+		IOUtils.closeQuietly(process.getOutputStream());
+		context.unregister(this);
+		stats.recordExecution(System.nanoTime() - started, failed, context.isTimedOut());
+		context.stage(ExtractionMonitor.STAGE_EXEC, started);
+		pool.release();
+	}
+}
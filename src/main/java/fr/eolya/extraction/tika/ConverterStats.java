@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execution statistics of one external converter (pdftotext, swf2html or djvutxt).
+ * The counters are updated live, the getters return their current values.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ConverterStats {
+
+	private final String tool;
+
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong execTime = new AtomicLong();
+	private final AtomicLong maxExecTime = new AtomicLong();
+	private final AtomicLong queueWait = new AtomicLong();
+	private final AtomicLong maxQueueWait = new AtomicLong();
+
+	ConverterStats(String tool) {
+		this.tool = tool;
+	}
+
+	void recordQueueWait(long nanos) {
+		queueWait.addAndGet(nanos);
+		updateMax(maxQueueWait, nanos);
+	}
+
+	void recordExecution(long nanos, boolean failed, boolean timedOut) {
+		executions.incrementAndGet();
+		if (failed) failures.incrementAndGet();
+		if (timedOut) timeouts.incrementAndGet();
+		execTime.addAndGet(nanos);
+		updateMax(maxExecTime, nanos);
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the route name of the converter
+	 */
+	public String getTool() {
+		return tool;
+	}
+
+	/**
+	 * @return the number of processes run
+	 */
+	public long getExecutions() {
+		return executions.get();
+	}
+
+	/**
+	 * @return the number of processes which ended with a non zero exit value
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return the number of processes killed because the extraction deadline was exceeded
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * @return the cumulated execution time of the processes in milliseconds
+	 */
+	public long getExecTimeMillis() {
+		return execTime.get() / 1000000;
+	}
+
+	public long getMaxExecTimeMillis() {
+		return maxExecTime.get() / 1000000;
+	}
+
+	/**
+	 * @return the cumulated time spent waiting for a free process slot in milliseconds
+	 */
+	public long getQueueWaitMillis() {
+		return queueWait.get() / 1000000;
+	}
+
+	public long getMaxQueueWaitMillis() {
+		return maxQueueWait.get() / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return tool + " [executions=" + getExecutions() + ", failures=" + getFailures() + ", timeouts=" + getTimeouts() 
+				+ ", execTimeMillis=" + getExecTimeMillis() + ", maxExecTimeMillis=" + getMaxExecTimeMillis() 
+				+ ", queueWaitMillis=" + getQueueWaitMillis() + ", maxQueueWaitMillis=" + getMaxQueueWaitMillis() + "]";
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Read-only view of the metadata of a document.
+ * <p/>
+ * The view is backed by the metadata collected during the extraction, nothing is copied 
+ * unless the caller declared the fields it needs (see {@link TikaExtractor#setMetadataFields(String...)}), 
+ * in which case only these fields are kept. A field may have several values.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public final class DocumentMetadata {
+
+	static final DocumentMetadata EMPTY = new DocumentMetadata(new Metadata());
+
+	private static final String[] NO_VALUES = new String[0];
+
+	private final Metadata metadata;
+
+	private DocumentMetadata(Metadata metadata) {
+		this.metadata = metadata;
+	}
+
+	/**
+	 * @param metadata the metadata, which must not be modified afterwards
+	 * @param fields the names of the fields to keep, or <code>null</code> in order to keep all of them
+	 */
+	static DocumentMetadata of(Metadata metadata, Set<String> fields) {
+		if (fields==null) return new DocumentMetadata(metadata);
+		Metadata selected = new Metadata();
+		for (String name : fields) {
+			for (String value : metadata.getValues(name)) {
+				selected.add(name, value);
+			}
+		}
+		return new DocumentMetadata(selected);
+	}
+
+	/**
+	 * @return the first value of the field, or <code>null</code>
+	 */
+	public String get(String name) {
+		return metadata.get(name);
+	}
+
+	/**
+	 * @return all the values of the field, an empty array if the field is not set
+	 */
+	public String[] getValues(String name) {
+		String[] values = metadata.getValues(name);
+		return values.length==0 ? NO_VALUES : values.clone();
+	}
+
+	public boolean contains(String name) {
+		return metadata.get(name)!=null;
+	}
+
+	/**
+	 * @return the names of the fields which are set
+	 */
+	public Set<String> names() {
+		return Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(metadata.names())));
+	}
+
+	public int size() {
+		return metadata.size();
+	}
+
+	public boolean isEmpty() {
+		return metadata.size()==0;
+	}
+
+	/**
+	 * @return the first value of the field as a number, or <code>null</code> if it is not set or not a number
+	 */
+	public Long getLong(String name) {
+		String value = get(name);
+		if (value==null) return null;
+		try {
+			return Long.valueOf(value.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the first value of the field as a date, or <code>null</code> if it is not set or not 
+	 *         an ISO 8601 date (a date without time zone is read as UTC)
+	 */
+	public Date getDate(String name) {
+		String value = get(name);
+		if (value==null) return null;
+		value = value.trim();
+		try {
+			return Date.from(OffsetDateTime.parse(value).toInstant());
+		} catch (DateTimeParseException e) {
+			// no time zone
+		}
+		try {
+			return Date.from(LocalDateTime.parse(value).toInstant(ZoneOffset.UTC));
+		} catch (DateTimeParseException e) {
+			// no time
+		}
+		try {
+			return Date.from(LocalDate.parse(value).atStartOfDay().toInstant(ZoneOffset.UTC));
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	public String getTitle() {
+		return get(ExtractionResult.META_TITLE);
+	}
+
+	public String getAuthor() {
+		return get(ExtractionResult.META_AUTHOR);
+	}
+
+	public Date getCreated() {
+		return getDate(ExtractionResult.META_CREATED);
+	}
+
+	public Date getModified() {
+		return getDate(ExtractionResult.META_MODIFIED);
+	}
+
+	/**
+	 * @return the content type without parameters (text/html), or <code>null</code>
+	 */
+	public String getContentType() {
+		String value = get(ExtractionResult.META_CONTENTTYPE);
+		if (value==null) return null;
+		int semicolon = value.indexOf(';');
+		return semicolon!=-1 ? value.substring(0, semicolon).trim() : value;
+	}
+
+	/**
+	 * @return the charset parameter of the content type (UTF-8), or <code>null</code>
+	 */
+	public String getCharset() {
+		String value = get(ExtractionResult.META_CONTENTTYPE);
+		if (value==null) return null;
+		for (String parameter : value.split(";")) {
+			int equal = parameter.indexOf('=');
+			if (equal!=-1 && "charset".equalsIgnoreCase(parameter.substring(0, equal).trim())) {
+				return parameter.substring(equal + 1).trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the size of the document in bytes, or <code>null</code>
+	 */
+	public Long getContentSize() {
+		return getLong(ExtractionResult.META_CONTENTSIZE);
+	}
+
+	/**
+	 * @return a copy of the metadata holding the last value of each field
+	 */
+	Map<String, String> toMap() {
+		Map<String, String> map = new HashMap<String, String>();
+		for (String name : metadata.names()) {
+			String[] values = metadata.getValues(name);
+			map.put(name, values[values.length - 1]);
+		}
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (String name : metadata.names()) {
+			if (sb.length() > 1) sb.append(", ");
+			sb.append(name).append("=");
+			String[] values = metadata.getValues(name);
+			sb.append(values.length==1 ? values[0] : Arrays.toString(values));
+		}
+		return sb.append("}").toString();
+	}
+}
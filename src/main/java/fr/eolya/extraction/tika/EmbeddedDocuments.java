@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.metadata.Metadata;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Collects the documents embedded in a container (archive entries, mail attachments, embedded objects) 
+ * instead of letting Tika flatten them into the text of the container.
+ * <p/>
+ * Each embedded document is copied to the scratch directory while the container is parsed, then extracted 
+ * as a separate result by a fork/join task, in parallel with the container and the other embedded documents. 
+ * The depth, the number and the total size of the embedded documents of a top-level document are bounded, 
+ * the documents beyond the limits are ignored. The embedded documents share the deadline of the top-level 
+ * document : the ones not extracted in time are abandoned. The documents which failed or were abandoned are 
+ * counted by {@link #getDropped()}.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class EmbeddedDocuments implements EmbeddedDocumentExtractor {
+
+	/**
+	 * Limits shared by all the embedded documents of a top-level document
+	 */
+	static final class Limits {
+		private final int maxDepth;
+		private final int maxCount;
+		private final long maxBytes;
+		private final AtomicInteger count = new AtomicInteger();
+		private final AtomicLong bytes = new AtomicLong();
+
+		Limits(int maxDepth, int maxCount, long maxBytes) {
+			this.maxDepth = maxDepth;
+			this.maxCount = maxCount;
+			this.maxBytes = maxBytes;
+		}
+	}
+
+	private final TikaExtractor extractor;
+	private final Spooler spooler;
+	private final ForkJoinPool pool;
+	private final Limits limits;
+	private final int depth;
+	private final String name;
+	private final long deadline;
+	private volatile boolean timedOut = false;
+	private volatile int dropped = 0;
+
+	private final List<ForkJoinTask<ExtractionResult>> children = new ArrayList<ForkJoinTask<ExtractionResult>>();
+
+	/**
+	 * @param depth the depth of the container, 0 for a top-level document
+	 * @param name the name of the container in its own container, or <code>null</code>
+	 * @param deadline the System.nanoTime() value after which the extraction of the top-level document is abandoned, 
+	 *        or 0 for no deadline
+	 */
+	EmbeddedDocuments(TikaExtractor extractor, Spooler spooler, ForkJoinPool pool, Limits limits, int depth, String name, long deadline) {
+		this.extractor = extractor;
+		this.spooler = spooler;
+		this.pool = pool;
+		this.limits = limits;
+		this.depth = depth;
+		this.name = name;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return the time left before the deadline in milliseconds, 0 for no deadline
+	 * @throws ExtractionContext.DeadlineExceededException if the deadline is exceeded
+	 */
+	long getTimeout() throws ExtractionContext.DeadlineExceededException {
+		if (deadline==0) return 0;
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		if (remaining <= 0) throw new ExtractionContext.DeadlineExceededException();
+		return remaining;
+	}
+
+	/**
+	 * @return <code>true</code> if embedded documents were abandoned by {@link #join()} at the deadline
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return the number of embedded documents whose extraction failed or was abandoned by {@link #join()}
+	 */
+	int getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the name of the container in its own container, or <code>null</code>
+	 */
+	String getName() {
+		return name;
+	}
+
+	public boolean shouldParseEmbedded(Metadata metadata) {
+		return depth < limits.maxDepth && limits.count.get() < limits.maxCount && limits.bytes.get() < limits.maxBytes;
+	}
+
+	public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml) throws SAXException, IOException {
+		if (limits.count.incrementAndGet() > limits.maxCount) return;
+		final String childName = metadata.get(Metadata.RESOURCE_NAME_KEY);
+		final String contentType = metadata.get(Metadata.CONTENT_TYPE);
+		String extension = childName!=null ? FilenameUtils.getExtension(childName) : "";
+
+		// the stream is only valid during this call, a copy is extracted later
+		long remaining = limits.maxBytes - limits.bytes.get();
+		final Spooler.SpooledFile spooled = spooler.spool(new BoundedInputStream(stream, remaining + 1), 
+				"".equals(extension) ? ".tmp" : "." + extension, null);
+		long size = spooled.size();
+		if (limits.bytes.addAndGet(size) > limits.maxBytes) {
+			limits.bytes.addAndGet(-size);
+			spooled.close();
+			return;
+		}
+
+		final EmbeddedDocuments grandChildren = new EmbeddedDocuments(extractor, spooler, pool, limits, depth + 1, childName, deadline);
+		ForkJoinTask<ExtractionResult> task = ForkJoinTask.adapt(new Callable<ExtractionResult>() {
+			public ExtractionResult call() throws Exception {
+				try {
+					return extractor.extractEmbedded(spooled, contentType, grandChildren);
+				} finally {
+					spooled.close();
+				}
+			}
+		});
+		if (ForkJoinTask.getPool()==pool) {
+			task.fork();
+		} else {
+			pool.execute(task);
+		}
+		synchronized (children) {
+			children.add(task);
+		}
+	}
+
+	/**
+	 * Wait for the extraction of the embedded documents, until the deadline at most. The tasks not completed 
+	 * at the deadline are cancelled.
+	 * @return the results in the order of appearance of the documents, without the documents which could not be extracted
+	 */
+	List<ExtractionResult> join() throws InterruptedException {
+		List<ForkJoinTask<ExtractionResult>> tasks;
+		synchronized (children) {
+			tasks = new ArrayList<ForkJoinTask<ExtractionResult>>(children);
+		}
+		List<ExtractionResult> results = new ArrayList<ExtractionResult>(tasks.size());
+		int failed = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			ForkJoinTask<ExtractionResult> task = tasks.get(i);
+			try {
+				if (deadline==0) {
+					results.add(task.join());
+					continue;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining > 0 || task.isDone()) {
+					results.add(task.get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+					continue;
+				}
+			} catch (TimeoutException e) {
+				// abandoned below
+			} catch (RuntimeException e) {
+				// encrypted, damaged or unsupported embedded document
+				failed++;
+				continue;
+			} catch (ExecutionException e) {
+				// encrypted, damaged or unsupported embedded document
+				failed++;
+				continue;
+			}
+			// the deadline is exceeded, the documents already extracted are kept
+			timedOut = true;
+			for (ForkJoinTask<ExtractionResult> outstanding : tasks.subList(i, tasks.size())) {
+				if (outstanding.isCompletedNormally()) {
+					results.add(outstanding.getRawResult());
+				} else {
+					outstanding.cancel(true);
+					failed++;
+				}
+			}
+			break;
+		}
+		dropped = failed;
+		return results;
+	}
+}
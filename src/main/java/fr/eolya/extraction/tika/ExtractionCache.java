@@ -0,0 +1,486 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Content-addressed cache of extraction results.
+ * <p/>
+ * The entries are keyed by the SHA-256 digest of the document and the extraction settings 
+ * (output format, route, converter paths, formater, encoding, write limit). They are kept in a 
+ * size-bounded in-memory LRU tier and, optionally, in a size-bounded on-disk tier which survives 
+ * restarts. Each tier evicts its least recently used entries. One cache can be shared by several 
+ * {@link TikaExtractor}.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ExtractionCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String ENTRY_SUFFIX = ".entry";
+
+	/**
+	 * Header of the entries on disk, the entries written with another format are dropped when read
+	 */
+	private static final int ENTRY_FORMAT = 0x45584334;
+
+	/**
+	 * Writer copying what goes to the sink, as long as it fits in a cache entry.
+	 */
+	static class CapturingWriter extends Writer {
+		private final Writer out;
+		private final StringBuilder captured = new StringBuilder();
+		private final long maxChars;
+		private boolean complete = true;
+
+		CapturingWriter(Writer out, long maxChars) {
+			this.out = out;
+			this.maxChars = maxChars;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			if (capture(len)) captured.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			if (capture(len)) captured.append(str, off, off + len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.flush();
+		}
+
+		private boolean capture(int len) {
+			if (!complete) return false;
+			if (captured.length() + len > maxChars) {
+				complete = false;
+				captured.setLength(0);
+				captured.trimToSize();
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return the written text or <code>null</code> if it is too large to be cached
+		 */
+		String getCaptured() {
+			return complete ? captured.toString() : null;
+		}
+	}
+
+	private final long maxMemoryBytes;
+	private long memoryBytes = 0;
+	private final LinkedHashMap<String, ExtractionResult> memory = new LinkedHashMap<String, ExtractionResult>(256, 0.75f, true);
+
+	private final Path directory;
+	private final long maxDiskBytes;
+	private long diskBytes = 0;
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(256, 0.75f, true);
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates an in-memory cache
+	 * @param maxMemoryBytes approximate maximum size of the cached entries in memory
+	 */
+	public ExtractionCache(long maxMemoryBytes) {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = null;
+		this.maxDiskBytes = 0;
+	}
+
+	/**
+	 * Creates a cache with an in-memory tier and an on-disk tier. The entries already in the 
+	 * directory are reused.
+	 * @param maxMemoryBytes approximate maximum size of the cached entries in memory
+	 * @param directory the directory of the on-disk tier, created if needed
+	 * @param maxDiskBytes maximum size of the on-disk tier
+	 */
+	public ExtractionCache(long maxMemoryBytes, String directory, long maxDiskBytes) throws IOException {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = Paths.get(directory);
+		this.maxDiskBytes = maxDiskBytes;
+		Files.createDirectories(this.directory);
+		loadDiskIndex();
+	}
+
+	/**
+	 * @return the SHA-256 digest of a file
+	 */
+	static String digest(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return DigestUtils.sha256Hex(input);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * @param digest the digest of the document
+	 * @param settings the extraction settings
+	 * @return the cache key
+	 */
+	static String key(String digest, String settings) {
+		return DigestUtils.sha256Hex(digest + "|" + settings);
+	}
+
+	/**
+	 * @return the largest text which can be cached, in characters
+	 */
+	long getMaxEntryChars() {
+		return Math.max(maxMemoryBytes, maxDiskBytes) / 2;
+	}
+
+	/**
+	 * @return the cached result, with text, or <code>null</code>
+	 */
+	ExtractionResult get(String key) {
+		synchronized (memory) {
+			ExtractionResult result = memory.get(key);
+			if (result!=null) {
+				memoryHits.incrementAndGet();
+				return result;
+			}
+		}
+		if (directory!=null) {
+			synchronized (disk) {
+				if (!disk.containsKey(key)) {
+					misses.incrementAndGet();
+					return null;
+				}
+				disk.get(key); // LRU access
+			}
+			try {
+				ExtractionResult result = read(directory.resolve(key + ENTRY_SUFFIX));
+				diskHits.incrementAndGet();
+				putInMemory(key, result);
+				return result;
+			} catch (IOException e) {
+				removeFromDisk(key);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param result the result to cache, with its text
+	 */
+	void put(String key, ExtractionResult result) {
+		putInMemory(key, result);
+		if (directory!=null) {
+			try {
+				putOnDisk(key, result);
+			} catch (IOException e) {
+				// the on-disk tier is best effort
+			}
+		}
+	}
+
+	private void putInMemory(String key, ExtractionResult result) {
+		long size = sizeOf(result);
+		if (size > maxMemoryBytes) return;
+		synchronized (memory) {
+			ExtractionResult previous = memory.put(key, result);
+			if (previous!=null) memoryBytes -= sizeOf(previous);
+			memoryBytes += size;
+			Iterator<ExtractionResult> it = memory.values().iterator();
+			while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+				memoryBytes -= sizeOf(it.next());
+				it.remove();
+			}
+		}
+	}
+
+	private void putOnDisk(String key, ExtractionResult result) throws IOException {
+		Path tmp = Files.createTempFile(directory, key, ".tmp");
+		try {
+			write(tmp, result);
+			long size = Files.size(tmp);
+			if (size > maxDiskBytes) return;
+			Files.move(tmp, directory.resolve(key + ENTRY_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			List<String> evicted = new ArrayList<String>();
+			synchronized (disk) {
+				Long previous = disk.put(key, size);
+				if (previous!=null) diskBytes -= previous;
+				diskBytes += size;
+				Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+				while (diskBytes > maxDiskBytes && it.hasNext()) {
+					Map.Entry<String, Long> eldest = it.next();
+					diskBytes -= eldest.getValue();
+					evicted.add(eldest.getKey());
+					it.remove();
+				}
+			}
+			for (String evictedKey : evicted) {
+				Files.deleteIfExists(directory.resolve(evictedKey + ENTRY_SUFFIX));
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void removeFromDisk(String key) {
+		synchronized (disk) {
+			Long size = disk.remove(key);
+			if (size!=null) diskBytes -= size;
+		}
+		try {
+			Files.deleteIfExists(directory.resolve(key + ENTRY_SUFFIX));
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Index the entries found in the directory, the least recently modified first, and delete the 
+	 * temporary files left by a process stopped while writing an entry
+	 */
+	private void loadDiskIndex() throws IOException {
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.tmp");
+		try {
+			for (Path tmp : stream) Files.deleteIfExists(tmp);
+		} finally {
+			stream.close();
+		}
+		List<Path> entries = new ArrayList<Path>();
+		stream = Files.newDirectoryStream(directory, "*" + ENTRY_SUFFIX);
+		try {
+			for (Path entry : stream) entries.add(entry);
+		} finally {
+			stream.close();
+		}
+		final Map<Path, Long> modified = new HashMap<Path, Long>();
+		for (Path entry : entries) modified.put(entry, entry.toFile().lastModified());
+		Collections.sort(entries, new Comparator<Path>() {
+			public int compare(Path p1, Path p2) {
+				return modified.get(p1).compareTo(modified.get(p2));
+			}
+		});
+		for (Path entry : entries) {
+			String name = entry.getFileName().toString();
+			long size = entry.toFile().length();
+			disk.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+			diskBytes += size;
+		}
+	}
+
+	/**
+	 * @return <code>false</code> if the document or one of its embedded documents was abandoned at the deadline, 
+	 *         failed to parse or could not be extracted at all, the next extraction may succeed
+	 */
+	static boolean isCacheable(ExtractionResult result) {
+		if (result.isTimedOut() || result.isParseFailed() || result.getDroppedEmbedded() > 0) return false;
+		for (ExtractionResult child : result.getEmbedded()) {
+			if (!isCacheable(child)) return false;
+		}
+		return true;
+	}
+
+	private static long sizeOf(ExtractionResult result) {
+		long size = 64;
+		if (result.getText()!=null) size += 2L * result.getText().length();
+		DocumentMetadata metadata = result.getMetadata();
+		for (String name : metadata.names()) {
+			size += 32 + 2L * name.length();
+			for (String value : metadata.getValues(name)) {
+				size += 16 + 2L * value.length();
+			}
+		}
+		for (ExtractionResult child : result.getEmbedded()) {
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	private static void write(Path path, ExtractionResult result) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+		try {
+			out.writeInt(ENTRY_FORMAT);
+			writeResult(out, result);
+		} finally {
+			out.close();
+		}
+	}
+
+	static void writeResult(DataOutputStream out, ExtractionResult result) throws IOException {
+		writeString(out, result.getRoute());
+		writeString(out, result.getContentType());
+		out.writeBoolean(result.isTruncated());
+		out.writeBoolean(result.isTimedOut());
+		out.writeBoolean(result.isParseFailed());
+		DocumentMetadata metadata = result.hasMetadata() ? result.getMetadata() : null;
+		out.writeInt(metadata!=null ? metadata.size() : -1);
+		if (metadata!=null) {
+			for (String name : metadata.names()) {
+				String[] values = metadata.getValues(name);
+				writeString(out, name);
+				out.writeInt(values.length);
+				for (String value : values) {
+					writeString(out, value);
+				}
+			}
+		}
+		writeString(out, result.getText());
+		out.writeInt(result.getEmbedded().size());
+		for (ExtractionResult child : result.getEmbedded()) {
+			writeResult(out, child);
+		}
+		out.writeInt(result.getDroppedEmbedded());
+	}
+
+	private static ExtractionResult read(Path path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+		try {
+			if (in.readInt()!=ENTRY_FORMAT) throw new IOException("Unknown cache entry format : " + path);
+			return readResult(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	static ExtractionResult readResult(DataInputStream in) throws IOException {
+		String route = readString(in);
+		String contentType = readString(in);
+		boolean truncated = in.readBoolean();
+		boolean timedOut = in.readBoolean();
+		boolean parseFailed = in.readBoolean();
+		int count = in.readInt();
+		DocumentMetadata metadata = null;
+		if (count >= 0) {
+			Metadata meta = new Metadata();
+			for (int i = 0; i < count; i++) {
+				String name = readString(in);
+				int values = in.readInt();
+				for (int j = 0; j < values; j++) {
+					meta.add(name, readString(in));
+				}
+			}
+			metadata = DocumentMetadata.of(meta, null);
+		}
+		String text = readString(in);
+		ExtractionResult result = new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed);
+		int children = in.readInt();
+		List<ExtractionResult> embedded = new ArrayList<ExtractionResult>(Math.max(children, 0));
+		for (int i = 0; i < children; i++) {
+			embedded.add(readResult(in));
+		}
+		int dropped = in.readInt();
+		if (children > 0 || dropped > 0) result = result.withEmbedded(embedded, dropped);
+		return result;
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value==null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int getMemoryEntries() {
+		synchronized (memory) {
+			return memory.size();
+		}
+	}
+
+	public long getMemoryBytes() {
+		synchronized (memory) {
+			return memoryBytes;
+		}
+	}
+
+	public int getDiskEntries() {
+		synchronized (disk) {
+			return disk.size();
+		}
+	}
+
+	public long getDiskBytes() {
+		synchronized (disk) {
+			return diskBytes;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ExtractionCache [memoryHits=" + getMemoryHits() + ", diskHits=" + getDiskHits() + ", misses=" + getMisses() 
+				+ ", memoryEntries=" + getMemoryEntries() + ", memoryBytes=" + getMemoryBytes() 
+				+ ", diskEntries=" + getDiskEntries() + ", diskBytes=" + getDiskBytes() + "]";
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * State of the extraction of one document, filled by the route and turned into an 
+ * immutable {@link ExtractionResult} once the extraction is done.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+class ExtractionContext {
+
+	/**
+	 * Thrown when the deadline of the extraction is exceeded.
+	 */
+	static class DeadlineExceededException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		DeadlineExceededException() {
+			super("Extraction deadline exceeded");
+		}
+	}
+
+	/**
+	 * Writer rejecting the writes once the deadline is exceeded, so that an abandoned extraction
+	 * never writes to the caller sink after the caller got its result.
+	 */
+	private class DeadlineWriter extends Writer {
+		private final Writer out;
+
+		DeadlineWriter(Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			synchronized (ExtractionContext.this) {
+				checkDeadline();
+				out.write(cbuf, off, len);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			synchronized (ExtractionContext.this) {
+				checkDeadline();
+				out.write(str, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			synchronized (ExtractionContext.this) {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Writer counting the characters written to the caller sink
+	 */
+	private class CountingWriter extends Writer {
+		private final Writer out;
+
+		CountingWriter(Writer out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			charsOut += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			charsOut += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	private final String route;
+	private final String contentType;
+	private final String charset;
+	private final Writer output;
+	private final WriteLimitedWriter limitedOutput;
+	private final ExtractionMonitor monitor;
+	private final long started = System.nanoTime();
+
+	// written by the extracting thread only
+	private volatile long charsOut = 0;
+	private volatile boolean parseFailed = false;
+
+	private Metadata metadata = null;
+	private final Set<String> fields;
+	private Metadata routeMetadata = null;
+	private String resourceName = null;
+	private EmbeddedDocuments embedded = null;
+	private boolean truncated = false;
+
+	/**
+	 * System.nanoTime() value after which the extraction is abandoned, or 0 for no deadline
+	 */
+	private final long deadline;
+	private volatile boolean timedOut = false;
+
+	private final List<ConverterProcess> processes = new ArrayList<ConverterProcess>(1);
+
+	/**
+	 * @param route the route used to extract the document
+	 * @param contentType the content type given by the caller, or <code>null</code>
+	 * @param charset the charset given by the caller with the content type, or <code>null</code>
+	 * @param output the sink
+	 * @param writeLimit the maximum number of characters written to the sink, or -1 for no limit
+	 * @param timeout the maximum duration of the extraction in milliseconds, or 0 for no limit
+	 * @param monitor the monitor receiving the measures of the extraction
+	 * @param fields the names of the metadata fields to keep, or <code>null</code> in order to keep all of them
+	 */
+	ExtractionContext(String route, String contentType, String charset, Writer output, int writeLimit, long timeout, ExtractionMonitor monitor, 
+			Set<String> fields) {
+		this.route = route;
+		this.fields = fields;
+		this.contentType = contentType;
+		this.charset = charset;
+		this.monitor = monitor;
+		output = new CountingWriter(output);
+		if (writeLimit < 0) {
+			this.limitedOutput = null;
+		} else {
+			this.limitedOutput = new WriteLimitedWriter(output, writeLimit);
+			output = limitedOutput;
+		}
+		if (timeout > 0) {
+			this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			output = new DeadlineWriter(output);
+		} else {
+			this.deadline = 0;
+		}
+		this.output = output;
+	}
+
+	String getRoute() {
+		return route;
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the charset given by the caller with the content type, or <code>null</code>
+	 */
+	String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return the sink the route has to write to
+	 */
+	Writer getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return the Tika metadata of the document, created on first call
+	 */
+	Metadata getMetadata() {
+		if (metadata==null) {
+			metadata = new Metadata();
+			if (resourceName!=null) metadata.set(Metadata.RESOURCE_NAME_KEY, resourceName);
+		}
+		return metadata;
+	}
+
+	/**
+	 * @param resourceName the name of the document in its container
+	 */
+	void setResourceName(String resourceName) {
+		this.resourceName = resourceName;
+		putMeta(Metadata.RESOURCE_NAME_KEY, resourceName);
+	}
+
+	/**
+	 * @param embedded the collector of the documents embedded in this one
+	 */
+	void setEmbedded(EmbeddedDocuments embedded) {
+		this.embedded = embedded;
+	}
+
+	/**
+	 * @return the collector of the documents embedded in this one, or <code>null</code> if they are flattened
+	 */
+	EmbeddedDocuments getEmbedded() {
+		return embedded;
+	}
+
+	/**
+	 * @return the given stream, failing on read once the deadline is exceeded
+	 */
+	InputStream guard(InputStream input) {
+		if (deadline==0) return input;
+		return new ProxyInputStream(input) {
+			@Override
+			protected void beforeRead(int n) throws IOException {
+				checkDeadline();
+			}
+		};
+	}
+
+	boolean hasDeadline() {
+		return deadline!=0;
+	}
+
+	/**
+	 * @return the System.nanoTime() value after which the extraction is abandoned, or 0 for no deadline
+	 */
+	long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * @return the time left before the deadline in milliseconds (at least 1), or <code>Long.MAX_VALUE</code> for no deadline
+	 */
+	long getRemainingMillis() {
+		if (deadline==0) return Long.MAX_VALUE;
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+	}
+
+	/**
+	 * @throws DeadlineExceededException if the deadline is exceeded
+	 */
+	void checkDeadline() throws DeadlineExceededException {
+		if (timedOut) throw new DeadlineExceededException();
+		if (deadline!=0 && System.nanoTime() - deadline > 0) {
+			timedOut = true;
+			throw new DeadlineExceededException();
+		}
+	}
+
+	/**
+	 * Abandon the extraction : the sink does not accept writes anymore and the running converters are killed
+	 */
+	synchronized void expire() {
+		timedOut = true;
+		for (ConverterProcess process : processes) {
+			process.destroy();
+		}
+	}
+
+	synchronized void register(ConverterProcess process) {
+		if (timedOut) process.destroy();
+		processes.add(process);
+	}
+
+	synchronized void unregister(ConverterProcess process) {
+		processes.remove(process);
+	}
+
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Report the duration of a stage to the monitor
+	 * @param stage one of the <code>ExtractionMonitor.STAGE_*</code> constants
+	 * @param start the System.nanoTime() value at the start of the stage
+	 */
+	void stage(String stage, long start) {
+		monitor.stage(route, stage, System.nanoTime() - start);
+	}
+
+	/**
+	 * Report the end of the extraction to the monitor
+	 * @param detectedContentType the content type detected by Tika, or <code>null</code> to report the given one
+	 * @param bytesIn the number of bytes of the document read, or -1 if unknown
+	 * @param failed <code>true</code> if the extraction failed with an exception
+	 */
+	void complete(String detectedContentType, long bytesIn, boolean failed) {
+		monitor.extraction(route, detectedContentType!=null ? detectedContentType : contentType, bytesIn, charsOut, 
+				System.nanoTime() - started, failed || parseFailed, timedOut);
+	}
+
+	/**
+	 * Flag a parse which failed after having produced a partial output, the partial output is kept
+	 */
+	void setParseFailed() {
+		parseFailed = true;
+	}
+
+	/**
+	 * @return <code>false</code> if the caller did not ask for the given metadata field, which then needs not be computed
+	 */
+	boolean wantsMeta(String name) {
+		return fields==null || fields.contains(name);
+	}
+
+	synchronized void putMeta(String name, String value) {
+		if (!wantsMeta(name)) return;
+		if (routeMetadata==null) routeMetadata = new Metadata();
+		routeMetadata.set(name, value);
+	}
+
+	/**
+	 * Flag the output as incomplete, for instance because the conversion was restricted to a page range
+	 */
+	void setTruncated() {
+		truncated = true;
+	}
+
+	boolean isWriteLimitReached() {
+		return limitedOutput!=null && limitedOutput.isLimitReached();
+	}
+
+	synchronized ExtractionResult toResult() {
+		// the result takes over the route metadata, a reader thread still running after a timeout fills a new one
+		Metadata meta = routeMetadata;
+		routeMetadata = null;
+		// an abandoned Tika parse may still be updating the metadata
+		if (metadata!=null && !timedOut) meta = metadata;
+		DocumentMetadata view = meta!=null ? DocumentMetadata.of(meta, fields) : null;
+		return new ExtractionResult(route, contentType, null, view, truncated || isWriteLimitReached(), timedOut, parseFailed);
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * JSON form of the extraction results, shared by the batch extractor and the extraction server.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public final class ExtractionJson {
+
+	private ExtractionJson() {
+	}
+
+	/**
+	 * @return the JSON object of a result, as in the lines of the output of BatchExtractor without the path and size
+	 */
+	public static String toJson(ExtractionResult result) {
+		StringBuilder sb = new StringBuilder();
+		appendResult(sb, result);
+		// the fields start with a comma
+		sb.setCharAt(0, '{');
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Append the fields of a result, each one preceded by a comma, the embedded documents are nested in an "embedded" array
+	 */
+	public static void appendResult(StringBuilder sb, ExtractionResult result) {
+		sb.append(",\"route\":");
+		appendJson(sb, result.getRoute());
+		sb.append(",\"contentType\":");
+		appendJson(sb, result.getDetectedContentType()!=null ? result.getDetectedContentType() : result.getMetaContentType());
+		sb.append(",\"truncated\":").append(result.isTruncated());
+		sb.append(",\"timedOut\":").append(result.isTimedOut());
+		sb.append(",\"parseFailed\":").append(result.isParseFailed());
+		sb.append(",\"metas\":{");
+		DocumentMetadata metadata = result.getMetadata();
+		boolean first = true;
+		for (String name : metadata.names()) {
+			if (!first) sb.append(',');
+			first = false;
+			appendJson(sb, name);
+			sb.append(':');
+			String[] values = metadata.getValues(name);
+			if (values.length==1) {
+				appendJson(sb, values[0]);
+			} else {
+				sb.append('[');
+				for (int i = 0; i < values.length; i++) {
+					if (i > 0) sb.append(',');
+					appendJson(sb, values[i]);
+				}
+				sb.append(']');
+			}
+		}
+		sb.append("},\"text\":");
+		appendJson(sb, result.getText());
+		if (!result.getEmbedded().isEmpty()) {
+			sb.append(",\"embedded\":[");
+			for (int i = 0; i < result.getEmbedded().size(); i++) {
+				if (i > 0) sb.append(',');
+				sb.append("{\"name\":");
+				appendJson(sb, result.getEmbedded().get(i).getMetadata().get(Metadata.RESOURCE_NAME_KEY));
+				appendResult(sb, result.getEmbedded().get(i));
+				sb.append('}');
+			}
+			sb.append(']');
+		}
+		if (result.getDroppedEmbedded() > 0) sb.append(",\"droppedEmbedded\":").append(result.getDroppedEmbedded());
+	}
+
+	/**
+	 * Append a JSON string, or <code>null</code>
+	 */
+	public static void appendJson(StringBuilder sb, String value) {
+		if (value==null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"': sb.append("\\\""); break;
+			case '\\': sb.append("\\\\"); break;
+			case '\n': sb.append("\\n"); break;
+			case '\r': sb.append("\\r"); break;
+			case '\t': sb.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
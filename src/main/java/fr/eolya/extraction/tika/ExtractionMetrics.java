@@ -0,0 +1,198 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link ExtractionMonitor} : counters by route, durations by route and stage, 
+ * and number of extractions by content type. The counters are updated live with 
+ * {@link LongAdder} so that the measure stays cheap under contention.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ExtractionMetrics implements ExtractionMonitor {
+
+	/**
+	 * Counters of one route
+	 */
+	public static class RouteMetrics {
+		private final String route;
+		private final LongAdder extractions = new LongAdder();
+		private final LongAdder failures = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder charsOut = new LongAdder();
+		private final LongAdder time = new LongAdder();
+		private final ConcurrentMap<String, LongAdder> stageTimes = new ConcurrentHashMap<String, LongAdder>();
+		private final ConcurrentMap<String, LongAdder> stageCounts = new ConcurrentHashMap<String, LongAdder>();
+
+		RouteMetrics(String route) {
+			this.route = route;
+		}
+
+		public String getRoute() {
+			return route;
+		}
+
+		public long getExtractions() {
+			return extractions.sum();
+		}
+
+		/**
+		 * @return the number of extractions which failed, including the parse failures returning a partial result
+		 */
+		public long getFailures() {
+			return failures.sum();
+		}
+
+		/**
+		 * @return the number of extractions abandoned because the deadline was exceeded
+		 */
+		public long getTimeouts() {
+			return timeouts.sum();
+		}
+
+		/**
+		 * @return the number of bytes of the documents read, the documents of unknown size are not counted
+		 */
+		public long getBytesIn() {
+			return bytesIn.sum();
+		}
+
+		public long getCharsOut() {
+			return charsOut.sum();
+		}
+
+		/**
+		 * @return the cumulated duration of the extractions in milliseconds
+		 */
+		public long getTimeMillis() {
+			return time.sum() / 1000000;
+		}
+
+		/**
+		 * @param stage one of the <code>ExtractionMonitor.STAGE_*</code> constants
+		 * @return the cumulated duration of the stage in milliseconds
+		 */
+		public long getStageTimeMillis(String stage) {
+			LongAdder adder = stageTimes.get(stage);
+			return adder!=null ? adder.sum() / 1000000 : 0;
+		}
+
+		/**
+		 * @param stage one of the <code>ExtractionMonitor.STAGE_*</code> constants
+		 * @return the number of times the stage was run
+		 */
+		public long getStageCount(String stage) {
+			LongAdder adder = stageCounts.get(stage);
+			return adder!=null ? adder.sum() : 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(route).append(" [extractions=").append(getExtractions()).append(", failures=").append(getFailures())
+				.append(", timeouts=").append(getTimeouts()).append(", bytesIn=").append(getBytesIn())
+				.append(", charsOut=").append(getCharsOut()).append(", timeMillis=").append(getTimeMillis());
+			for (String stage : new TreeMap<String, LongAdder>(stageTimes).keySet()) {
+				sb.append(", ").append(stage).append("Millis=").append(getStageTimeMillis(stage));
+			}
+			return sb.append("]").toString();
+		}
+	}
+
+	private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentHashMap<String, RouteMetrics>();
+	private final ConcurrentMap<String, LongAdder> contentTypes = new ConcurrentHashMap<String, LongAdder>();
+
+	public void stage(String route, String stage, long nanos) {
+		RouteMetrics metrics = getOrCreate(route);
+		adder(metrics.stageTimes, stage).add(nanos);
+		adder(metrics.stageCounts, stage).increment();
+	}
+
+	public void extraction(String route, String contentType, long bytesIn, long charsOut, long nanos, boolean failed, boolean timedOut) {
+		RouteMetrics metrics = getOrCreate(route);
+		metrics.extractions.increment();
+		if (failed) metrics.failures.increment();
+		if (timedOut) metrics.timeouts.increment();
+		if (bytesIn > 0) metrics.bytesIn.add(bytesIn);
+		metrics.charsOut.add(charsOut);
+		metrics.time.add(nanos);
+		adder(contentTypes, contentType!=null ? contentType : "unknown").increment();
+	}
+
+	private RouteMetrics getOrCreate(String route) {
+		RouteMetrics metrics = routes.get(route);
+		if (metrics==null) {
+			RouteMetrics created = new RouteMetrics(route);
+			metrics = routes.putIfAbsent(route, created);
+			if (metrics==null) metrics = created;
+		}
+		return metrics;
+	}
+
+	private static LongAdder adder(ConcurrentMap<String, LongAdder> adders, String key) {
+		LongAdder adder = adders.get(key);
+		if (adder==null) {
+			LongAdder created = new LongAdder();
+			adder = adders.putIfAbsent(key, created);
+			if (adder==null) adder = created;
+		}
+		return adder;
+	}
+
+	/**
+	 * @param route one of the <code>TikaExtractor.ROUTE_*</code> constants
+	 * @return the counters of the route, or <code>null</code> if the route was never used
+	 */
+	public RouteMetrics getRoute(String route) {
+		return routes.get(route);
+	}
+
+	/**
+	 * @return the counters of the routes used so far, by route
+	 */
+	public Map<String, RouteMetrics> getRoutes() {
+		return Collections.unmodifiableMap(new TreeMap<String, RouteMetrics>(routes));
+	}
+
+	/**
+	 * @return the number of extractions by detected content type
+	 */
+	public Map<String, Long> getContentTypes() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : contentTypes.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (RouteMetrics metrics : getRoutes().values()) {
+			sb.append(metrics).append("\n");
+		}
+		sb.append("contentTypes ").append(getContentTypes());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+/**
+ * Receives the measures of the extractions run by a {@link TikaExtractor}.
+ * <p/>
+ * The methods are called by the extracting threads, on the hot path : an implementation 
+ * has to be thread-safe and must not block. {@link #NOOP} is used by default and 
+ * {@link ExtractionMetrics} keeps the measures in memory.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public interface ExtractionMonitor {
+
+	/** Wait for the memory budget of the extraction */
+	public static final String STAGE_ADMISSION = "admission";
+	/** Digest of the document and lookup in the cache */
+	public static final String STAGE_CACHE = "cache";
+	/** Copy of the document to the scratch directory for an external converter */
+	public static final String STAGE_SPOOL = "spool";
+	/** Wait for a free slot of the converter pool */
+	public static final String STAGE_QUEUE = "queue";
+	/** Run of an external converter, from its start to its end, including the reading of its output */
+	public static final String STAGE_EXEC = "exec";
+	/** Tika parse */
+	public static final String STAGE_PARSE = "parse";
+	/** Parse of the html page by snacktory or boilerpipe */
+	public static final String STAGE_HTML = "html";
+	/** Collect of the document metadata */
+	public static final String STAGE_METADATA = "metadata";
+
+	/**
+	 * Monitor ignoring all the measures
+	 */
+	public static final ExtractionMonitor NOOP = new ExtractionMonitor() {
+		public void stage(String route, String stage, long nanos) {
+		}
+
+		public void extraction(String route, String contentType, long bytesIn, long charsOut, long nanos, boolean failed, boolean timedOut) {
+		}
+	};
+
+	/**
+	 * Called at the end of each stage of an extraction
+	 * @param route the route of the extraction, one of the <code>TikaExtractor.ROUTE_*</code> constants
+	 * @param stage one of the <code>STAGE_*</code> constants
+	 * @param nanos the duration of the stage in nanoseconds
+	 */
+	void stage(String route, String stage, long nanos);
+
+	/**
+	 * Called at the end of each extraction, including the failed ones
+	 * @param route the route of the extraction, one of the <code>TikaExtractor.ROUTE_*</code> constants
+	 * @param contentType the content type detected by Tika or given by the caller, or <code>null</code>
+	 * @param bytesIn the number of bytes of the document read, or -1 if unknown
+	 * @param charsOut the number of characters written to the sink
+	 * @param nanos the duration of the extraction in nanoseconds
+	 * @param failed <code>true</code> if the extraction failed, even if a partial result was returned
+	 * @param timedOut <code>true</code> if the extraction was abandoned because the deadline was exceeded
+	 */
+	void extraction(String route, String contentType, long bytesIn, long charsOut, long nanos, boolean failed, boolean timedOut);
+}
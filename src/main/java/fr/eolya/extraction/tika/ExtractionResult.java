@@ -0,0 +1,272 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable result of the extraction of one document by {@link TikaExtractor}.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public final class ExtractionResult {
+
+	static final String META_TITLE = "title";
+	static final String META_AUTHOR = "Author";
+	static final String META_CREATED = "Creation-Date";
+	static final String META_MODIFIED = "modified";
+	static final String META_CONTENTTYPE = "Content-Type";
+	static final String META_CONTENTSIZE = "Content-Size";
+
+	private final String route;
+	private final String contentType;
+	private final String text;
+	private final DocumentMetadata metadata;
+	private final boolean truncated;
+	private final boolean timedOut;
+	private final boolean parseFailed;
+	private final String detectedContentType;
+	private final String detection;
+	private final List<ExtractionResult> embedded;
+	private final int droppedEmbedded;
+	private final RouteSelector.Decision routeDecision;
+
+	// built on first call of getMetas()
+	private volatile Map<String, String> metas;
+
+	ExtractionResult(String route, String contentType, String text, DocumentMetadata metadata, boolean truncated, boolean timedOut) {
+		this(route, contentType, text, metadata, truncated, timedOut, false);
+	}
+
+	ExtractionResult(String route, String contentType, String text, DocumentMetadata metadata, boolean truncated, boolean timedOut, boolean parseFailed) {
+		this(route, contentType, text, metadata, truncated, timedOut, parseFailed, null, null, Collections.<ExtractionResult>emptyList(), 0, null);
+	}
+
+	private ExtractionResult(String route, String contentType, String text, DocumentMetadata metadata, boolean truncated, boolean timedOut, 
+			boolean parseFailed, String detectedContentType, String detection, List<ExtractionResult> embedded, int droppedEmbedded, 
+			RouteSelector.Decision routeDecision) {
+		this.route = route;
+		this.contentType = contentType;
+		this.text = text;
+		this.metadata = metadata;
+		this.truncated = truncated;
+		this.timedOut = timedOut;
+		this.parseFailed = parseFailed;
+		this.detectedContentType = detectedContentType;
+		this.detection = detection;
+		this.embedded = embedded;
+		this.droppedEmbedded = droppedEmbedded;
+		this.routeDecision = routeDecision;
+	}
+
+	/**
+	 * @return a copy of this result holding the given text
+	 */
+	ExtractionResult withText(String text) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return a copy of this result for the given content type
+	 */
+	ExtractionResult withContentType(String contentType) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return a copy of this result with the given timeout flag
+	 */
+	ExtractionResult withTimedOut(boolean timedOut) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return a copy of this result with the given parse failure flag
+	 */
+	ExtractionResult withParseFailed(boolean parseFailed) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return a copy of this result recording how the content type used for routing was decided
+	 */
+	ExtractionResult withDetection(String detectedContentType, String detection) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @param droppedEmbedded the number of embedded documents whose extraction failed or was abandoned
+	 * @return a copy of this result holding the results of the given embedded documents
+	 */
+	ExtractionResult withEmbedded(List<ExtractionResult> embedded, int droppedEmbedded) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, 
+				Collections.unmodifiableList(embedded), droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return a copy of this result recording the decision of the route selector
+	 */
+	ExtractionResult withRouteDecision(RouteSelector.Decision routeDecision) {
+		return new ExtractionResult(route, contentType, text, metadata, truncated, timedOut, parseFailed, detectedContentType, detection, embedded, droppedEmbedded, routeDecision);
+	}
+
+	/**
+	 * @return the route used to extract the document, one of the <code>TikaExtractor.ROUTE_*</code> constants
+	 */
+	public String getRoute() {
+		return route;
+	}
+
+	/**
+	 * @return how the route was chosen and whether the document was extracted by the fallback route, 
+	 *         or <code>null</code> if the route was not chosen by a {@link RouteSelector}
+	 */
+	public RouteSelector.Decision getRouteDecision() {
+		return routeDecision;
+	}
+
+	/**
+	 * @return the content type given by the caller, or <code>null</code>
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the content type used in order to select the route, or <code>null</code> if it is unknown
+	 */
+	public String getDetectedContentType() {
+		return detectedContentType;
+	}
+
+	/**
+	 * @return how the content type used in order to select the route was decided, one of the 
+	 *         <code>TikaExtractor.DETECTION_*</code> constants, or <code>null</code> if the route was forced
+	 */
+	public String getDetection() {
+		return detection;
+	}
+
+	/**
+	 * @return the extracted content, or <code>null</code> if it was streamed to a caller-supplied sink
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * The text is incomplete when:
+	 * <ul>
+	 * <li>the write limit was reached</li>
+	 * <li>an html page was cut at the maximum html size (TikaExtractor.setMaxHtmlSize) before snacktory or boilerpipe</li>
+	 * <li>the pages of a pdf beyond the write limit were not converted, pdftotext being limited with -l or the shards 
+	 * not being created</li>
+	 * </ul>
+	 * @return <code>true</code> if the extraction stopped before the end of the document
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return <code>true</code> if the extraction was abandoned because the deadline was exceeded,
+	 *         the text and metadata then hold what was extracted before
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return <code>true</code> if the parser failed on a damaged or encrypted document, 
+	 *         the text and metadata then hold what was extracted before the failure
+	 */
+	public boolean isParseFailed() {
+		return parseFailed;
+	}
+
+	/**
+	 * @return a read-only view of the document metadata, empty if no metadata was extracted
+	 */
+	public DocumentMetadata getMetadata() {
+		return metadata!=null ? metadata : DocumentMetadata.EMPTY;
+	}
+
+	/**
+	 * @return the results of the documents embedded in this one (attachments, archive entries, embedded objects) in 
+	 *         their order of appearance, empty unless {@link TikaExtractor#setMaxEmbeddedDepth(int)} is set
+	 */
+	public List<ExtractionResult> getEmbedded() {
+		return embedded;
+	}
+
+	/**
+	 * @return the number of embedded documents which were found but are missing from {@link #getEmbedded()} because 
+	 *         their extraction failed or was abandoned at the deadline, the documents beyond the limits are not counted
+	 */
+	public int getDroppedEmbedded() {
+		return droppedEmbedded;
+	}
+
+	boolean hasMetadata() {
+		return metadata!=null;
+	}
+
+	public String getMetaAuthor() {
+		return metadata!=null ? metadata.getAuthor() : null;
+	}
+
+	public String getMetaCreated() {
+		return metadata!=null ? metadata.get(META_CREATED) : null;
+	}
+
+	public String getMetaTitle() {
+		return metadata!=null ? metadata.getTitle() : null;
+	}
+
+	public String getMetaModified() {
+		return metadata!=null ? metadata.get(META_MODIFIED) : null;
+	}
+
+	public String getMetaContentType() {
+		return metadata!=null ? metadata.getContentType() : null;
+	}
+
+	public String getMetaCharSet() {
+		if (metadata==null) return null;
+		String value = metadata.get(META_CONTENTTYPE);
+		if (value!=null && value.indexOf(";")!=-1)
+			value = value.substring(value.indexOf(";")+1).trim();
+		else
+			value = null;
+		return value;
+	}
+
+	/**
+	 * @return a read-only copy of the document metadata holding the last value of each field, 
+	 *         or <code>null</code>. {@link #getMetadata()} avoids the copy and gives all the values.
+	 */
+	public Map<String, String> getMetas() {
+		if (metadata==null) return null;
+		Map<String, String> map = metas;
+		if (map==null) {
+			map = Collections.unmodifiableMap(metadata.toMap());
+			metas = map;
+		}
+		return map;
+	}
+}
@@ -0,0 +1,522 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.READY;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.REQUEST_FILE;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.REQUEST_QUIT;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.REQUEST_STREAM;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.RESPONSE_ERROR;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.RESPONSE_RESULT;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.RESPONSE_TEXT;
+import static fr.eolya.extraction.tika.ForkedExtractorWorker.UTF8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+
+/**
+ * Extracts the documents in a pool of forked JVMs, so that a parser which crashes, loops or exhausts 
+ * its heap only takes down its worker.
+ * <p/>
+ * The workers are started in advance with their own JVM options and the settings of a template 
+ * {@link TikaExtractor}, and talk to this JVM through their standard input and output. Each worker 
+ * extracts one document at a time and streams the text back as it is extracted. A worker is replaced 
+ * in the background after a number of documents, after a crash (the extraction then fails with an 
+ * {@link IOException}) or when it is killed because an extraction exceeded the hard timeout.
+ * <p/>
+ * The cache, converter pool, monitor, route selector and memory budget of the template are not used 
+ * by the workers. The html formater is created in each worker by its no-argument constructor, with the 
+ * settings of HtmlToPlaintTextStreaming copied; a formater whose signature then differs is rejected.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class ForkedExtractorPool implements Closeable {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Map<String, String> settings;
+	private final int size;
+	private final LinkedBlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+	private final Set<Worker> workers = ConcurrentHashMap.<Worker>newKeySet();
+	// the watchdogs, never blocked by the start of a worker
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService starter;
+
+	private String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+	private String classPath = System.getProperty("java.class.path");
+	private List<String> jvmOptions = Arrays.asList("-XX:+ExitOnOutOfMemoryError");
+	private int maxDocuments = 1000;
+	private long hardTimeout;
+	private long startTimeout = 60000;
+
+	private boolean started = false;
+	private volatile boolean closed = false;
+	private volatile IOException startFailure = null;
+
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong restarts = new AtomicLong();
+	private final AtomicLong crashes = new AtomicLong();
+	private final AtomicLong kills = new AtomicLong();
+
+	/**
+	 * @param template the extractor whose settings are used by the workers
+	 * @param size the number of workers
+	 * @throws IllegalArgumentException if the html formater of the template cannot be rebuilt by the workers
+	 */
+	public ForkedExtractorPool(TikaExtractor template, int size) {
+		this.settings = template.getWorkerSettings();
+		// fails here rather than in each worker
+		TikaExtractor.newFormater(settings);
+		this.size = size;
+		this.hardTimeout = template.getTimeout() > 0 ? 2 * template.getTimeout() : 0;
+		this.scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tika-forked-watchdog");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.starter = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tika-forked-start-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @param javaPath the java executable of the workers, the one of this JVM by default
+	 */
+	public void setJavaPath(String javaPath) {
+		this.javaPath = javaPath;
+	}
+
+	/**
+	 * @param classPath the class path of the workers, the one of this JVM by default
+	 */
+	public void setClassPath(String classPath) {
+		this.classPath = classPath;
+	}
+
+	/**
+	 * @param jvmOptions the options of the worker JVMs (heap size, ...), -XX:+ExitOnOutOfMemoryError by default
+	 */
+	public void setJvmOptions(String... jvmOptions) {
+		this.jvmOptions = Arrays.asList(jvmOptions);
+	}
+
+	/**
+	 * @param maxDocuments the number of documents extracted by a worker before it is replaced, or 0 for no limit
+	 */
+	public void setMaxDocuments(int maxDocuments) {
+		this.maxDocuments = maxDocuments;
+	}
+
+	/**
+	 * @param hardTimeout the time in ms after which a worker still extracting a document is killed, 
+	 *        or 0 for no limit. Twice the timeout of the template by default.
+	 */
+	public void setHardTimeout(long hardTimeout) {
+		this.hardTimeout = hardTimeout;
+	}
+
+	/**
+	 * @param startTimeout the time in ms given to a worker in order to start and load the parsers, 60 s by default
+	 */
+	public void setStartTimeout(long startTimeout) {
+		this.startTimeout = startTimeout;
+	}
+
+	/**
+	 * Start the workers in the background. Called by the first extraction if needed.
+	 */
+	public synchronized void start() {
+		if (started) return;
+		if (closed) throw new IllegalStateException("Pool closed");
+		started = true;
+		for (int i = 0; i < size; i++) {
+			launch();
+		}
+	}
+
+	private void launch() {
+		try {
+			starter.execute(newLauncher());
+		} catch (RejectedExecutionException e) {
+			// closed
+		}
+	}
+
+	private Runnable newLauncher() {
+		return new Runnable() {
+			public void run() {
+				if (closed) return;
+				try {
+					Worker worker = new Worker();
+					startFailure = null;
+					workers.add(worker);
+					if (closed) {
+						worker.stop();
+						return;
+					}
+					idle.add(worker);
+				} catch (IOException e) {
+					startFailure = e;
+					if (!closed) {
+						final Runnable retry = this;
+						scheduler.schedule(new Runnable() {
+							public void run() {
+								if (!closed) starter.execute(retry);
+							}
+						}, 1, TimeUnit.SECONDS);
+					}
+				} catch (RejectedExecutionException e) {
+					// closed
+				}
+			}
+		};
+	}
+
+	/**
+	 * Extract a document in a worker
+	 * @param input the document, closed by this method
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @return the extraction result
+	 * @throws IOException if the extraction failed, the worker crashed or exceeded the hard timeout
+	 */
+	public ExtractionResult extract(InputStream input, String contentType) throws IOException, InterruptedException {
+		StringBuilderWriter output = new StringBuilderWriter();
+		ExtractionResult result = extract(input, contentType, output);
+		return result.withText(output.toString());
+	}
+
+	/**
+	 * Extract a document in a worker and stream the extracted content to a caller-supplied sink.
+	 * The document is sent to the worker before the extraction starts.
+	 * @param input the document, closed by this method
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @param output the sink, not closed by this method
+	 * @return the extraction result, without text
+	 * @throws IOException if the extraction failed, the worker crashed or exceeded the hard timeout
+	 */
+	public ExtractionResult extract(InputStream input, String contentType, Writer output) throws IOException, InterruptedException {
+		try {
+			return extract(input, null, contentType, output);
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Extract a document stored in a file, read in place by the worker
+	 * @see #extract(InputStream, String)
+	 */
+	public ExtractionResult extract(Path path, String contentType) throws IOException, InterruptedException {
+		StringBuilderWriter output = new StringBuilderWriter();
+		ExtractionResult result = extract(null, path, contentType, output);
+		return result.withText(output.toString());
+	}
+
+	/**
+	 * Extract a document stored in a file, read in place by the worker
+	 * @see #extract(InputStream, String, Writer)
+	 */
+	public ExtractionResult extract(Path path, String contentType, Writer output) throws IOException, InterruptedException {
+		return extract(null, path, contentType, output);
+	}
+
+	private ExtractionResult extract(InputStream input, Path path, String contentType, Writer output) throws IOException, InterruptedException {
+		start();
+		Worker worker = take();
+		worker.synced = false;
+		ScheduledFuture<?> watchdog = null;
+		if (hardTimeout > 0) {
+			final Worker target = worker;
+			watchdog = scheduler.schedule(new Runnable() {
+				public void run() {
+					target.kill();
+				}
+			}, hardTimeout, TimeUnit.MILLISECONDS);
+		}
+		try {
+			send(worker, input, path, contentType);
+			return receive(worker, output);
+		} catch (IOException e) {
+			if (worker.synced) throw e;
+			if (worker.killed) throw new IOException("Extraction killed after " + hardTimeout + " ms", e);
+			if (worker.exited()) {
+				crashes.incrementAndGet();
+				throw new IOException("Worker crashed", e);
+			}
+			throw e;
+		} finally {
+			if (watchdog!=null) watchdog.cancel(false);
+			documents.incrementAndGet();
+			release(worker);
+		}
+	}
+
+	private Worker take() throws IOException, InterruptedException {
+		while (true) {
+			if (closed) throw new IllegalStateException("Pool closed");
+			Worker worker = idle.poll(1, TimeUnit.SECONDS);
+			if (worker!=null) {
+				if (worker.isAlive()) return worker;
+				// died while idle
+				if (!worker.killed) crashes.incrementAndGet();
+				retire(worker);
+				continue;
+			}
+			IOException failure = startFailure;
+			if (failure!=null) throw new IOException("Cannot start the worker JVM", failure);
+		}
+	}
+
+	private void release(Worker worker) {
+		worker.documents++;
+		if (worker.synced && !closed && (maxDocuments <= 0 || worker.documents < maxDocuments)) {
+			idle.add(worker);
+		} else {
+			retire(worker);
+		}
+	}
+
+	private void retire(Worker worker) {
+		workers.remove(worker);
+		worker.stop();
+		if (!closed) {
+			restarts.incrementAndGet();
+			launch();
+		}
+	}
+
+	private void send(Worker worker, InputStream input, Path path, String contentType) throws IOException {
+		DataOutputStream out = worker.out;
+		if (path!=null) {
+			out.writeByte(REQUEST_FILE);
+			ExtractionCache.writeString(out, contentType);
+			ExtractionCache.writeString(out, path.toAbsolutePath().toString());
+		} else {
+			out.writeByte(REQUEST_STREAM);
+			ExtractionCache.writeString(out, contentType);
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int n;
+			while ((n = input.read(buffer)) >= 0) {
+				if (n==0) continue;
+				out.writeInt(n);
+				out.write(buffer, 0, n);
+			}
+			out.writeInt(0);
+		}
+		out.flush();
+	}
+
+	private ExtractionResult receive(Worker worker, Writer output) throws IOException {
+		DataInputStream in = worker.in;
+		IOException outputFailure = null;
+		while (true) {
+			byte response = in.readByte();
+			if (response==RESPONSE_TEXT) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				// the response is read to the end even if the sink fails, the worker stays usable
+				if (outputFailure==null) {
+					try {
+						output.write(new String(bytes, UTF8));
+					} catch (IOException e) {
+						outputFailure = e;
+					}
+				}
+			} else if (response==RESPONSE_RESULT) {
+				ExtractionResult result = ExtractionCache.readResult(in);
+				String detectedContentType = ExtractionCache.readString(in);
+				String detection = ExtractionCache.readString(in);
+				worker.synced = true;
+				if (outputFailure!=null) throw outputFailure;
+				return result.withDetection(detectedContentType, detection);
+			} else if (response==RESPONSE_ERROR) {
+				String error = ExtractionCache.readString(in);
+				worker.synced = true;
+				throw new IOException("Extraction failed in the worker : " + error);
+			} else {
+				throw new IOException("Unexpected response from the worker : " + response);
+			}
+		}
+	}
+
+	/**
+	 * Stop the workers, the pending extractions fail
+	 */
+	public void close() {
+		closed = true;
+		scheduler.shutdownNow();
+		starter.shutdownNow();
+		for (Worker worker : new ArrayList<Worker>(workers)) {
+			worker.stop();
+		}
+		workers.clear();
+		idle.clear();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of workers started and waiting for a document
+	 */
+	public int getIdle() {
+		return idle.size();
+	}
+
+	public long getDocuments() {
+		return documents.get();
+	}
+
+	/**
+	 * @return the number of workers replaced, after their maximum number of documents, a crash or a kill
+	 */
+	public long getRestarts() {
+		return restarts.get();
+	}
+
+	public long getCrashes() {
+		return crashes.get();
+	}
+
+	/**
+	 * @return the number of workers killed because an extraction exceeded the hard timeout
+	 */
+	public long getKills() {
+		return kills.get();
+	}
+
+	@Override
+	public String toString() {
+		return "workers=" + size + " idle=" + getIdle() + " documents=" + getDocuments() + " restarts=" + getRestarts() 
+				+ " crashes=" + getCrashes() + " kills=" + getKills();
+	}
+
+	/**
+	 * A forked JVM, used by one extraction at a time
+	 */
+	private class Worker {
+
+		final Process process;
+		final DataOutputStream out;
+		final DataInputStream in;
+		int documents = 0;
+		// the last response was read to the end
+		volatile boolean synced = true;
+		volatile boolean killed = false;
+
+		Worker() throws IOException {
+			List<String> command = new ArrayList<String>();
+			command.add(javaPath);
+			command.addAll(jvmOptions);
+			command.add("-cp");
+			command.add(classPath);
+			command.add(ForkedExtractorWorker.class.getName());
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			process = builder.start();
+			out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), CHUNK_SIZE));
+			in = new DataInputStream(new BufferedInputStream(process.getInputStream(), CHUNK_SIZE));
+			// a worker which does not answer in time is killed, the handshake then fails
+			ScheduledFuture<?> timeout;
+			try {
+				timeout = scheduler.schedule(new Runnable() {
+					public void run() {
+						process.destroyForcibly();
+					}
+				}, startTimeout, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				process.destroyForcibly();
+				throw e;
+			}
+			try {
+				ForkedExtractorWorker.writeSettings(out, settings);
+				out.flush();
+				if (in.readInt()!=READY) throw new IOException("Unexpected worker handshake");
+			} catch (IOException e) {
+				process.destroyForcibly();
+				throw new IOException("Worker JVM failed to start : " + command, e);
+			} finally {
+				timeout.cancel(false);
+			}
+		}
+
+		boolean isAlive() {
+			return process.isAlive();
+		}
+
+		/**
+		 * @return <code>true</code> if the JVM exits within a second
+		 */
+		boolean exited() throws InterruptedException {
+			return process.waitFor(1, TimeUnit.SECONDS);
+		}
+
+		void kill() {
+			killed = true;
+			kills.incrementAndGet();
+			process.destroyForcibly();
+		}
+
+		void stop() {
+			if (synced && process.isAlive()) {
+				try {
+					out.writeByte(REQUEST_QUIT);
+					out.close();
+					if (process.waitFor(5, TimeUnit.SECONDS)) return;
+				} catch (IOException e) {
+					// killed below
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			process.destroyForcibly();
+		}
+	}
+}
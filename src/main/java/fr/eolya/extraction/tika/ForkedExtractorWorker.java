@@ -0,0 +1,212 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.output.NullWriter;
+
+/**
+ * Main class of the JVMs forked by {@link ForkedExtractorPool}.
+ * <p/>
+ * The worker reads its settings and then the documents on its standard input and writes the extracted text, 
+ * by chunks, and the results on its standard output. Anything else printed by the libraries goes to the 
+ * standard error. The worker stops at the end of its standard input.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public final class ForkedExtractorWorker {
+
+	static final int READY = 0x54575752;
+
+	static final byte REQUEST_QUIT = 0;
+	static final byte REQUEST_STREAM = 1;
+	static final byte REQUEST_FILE = 2;
+
+	static final byte RESPONSE_TEXT = 1;
+	static final byte RESPONSE_RESULT = 2;
+	static final byte RESPONSE_ERROR = 3;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int CHUNK_SIZE = 8 * 1024;
+
+	private ForkedExtractorWorker() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024));
+		System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+		DataInputStream in = new DataInputStream(new BufferedInputStream(System.in, 64 * 1024));
+
+		TikaExtractor extractor = TikaExtractor.fromWorkerSettings(readSettings(in));
+		warm(extractor);
+		out.writeInt(READY);
+		out.flush();
+
+		while (true) {
+			byte request;
+			try {
+				request = in.readByte();
+			} catch (IOException e) {
+				break;
+			}
+			if (request==REQUEST_QUIT) break;
+			String contentType = ExtractionCache.readString(in);
+			Path path;
+			boolean spooled = request==REQUEST_STREAM;
+			if (spooled) {
+				// the whole document is read before the extraction, the parent never blocks on a full pipe
+				path = spool(in, extractor.getTempPath());
+			} else {
+				path = Paths.get(ExtractionCache.readString(in));
+			}
+			try {
+				TextChunks text = new TextChunks(out);
+				ExtractionResult result = extractor.extract(path, contentType, text);
+				text.flush();
+				out.writeByte(RESPONSE_RESULT);
+				ExtractionCache.writeResult(out, result);
+				ExtractionCache.writeString(out, result.getDetectedContentType());
+				ExtractionCache.writeString(out, result.getDetection());
+			} catch (Exception e) {
+				out.writeByte(RESPONSE_ERROR);
+				ExtractionCache.writeString(out, e.toString());
+			} finally {
+				if (spooled) Files.deleteIfExists(path);
+			}
+			out.flush();
+		}
+		out.flush();
+		System.exit(0);
+	}
+
+	static void writeSettings(DataOutputStream out, Map<String, String> settings) throws IOException {
+		out.writeInt(settings.size());
+		for (Map.Entry<String, String> setting : settings.entrySet()) {
+			ExtractionCache.writeString(out, setting.getKey());
+			ExtractionCache.writeString(out, setting.getValue());
+		}
+	}
+
+	private static Map<String, String> readSettings(DataInputStream in) throws IOException {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			settings.put(ExtractionCache.readString(in), ExtractionCache.readString(in));
+		}
+		return settings;
+	}
+
+	/**
+	 * Load the parsers before the first document
+	 */
+	private static void warm(TikaExtractor extractor) {
+		try {
+			extractor.extract(new ByteArrayInputStream("<html><body><p>warm</p></body></html>".getBytes(UTF8)), 
+					TikaWrapper.CONTENT_TYPE_HTML, new NullWriter());
+		} catch (Exception e) {
+			System.err.println("Worker warm up failed : " + e);
+		}
+	}
+
+	private static Path spool(DataInputStream in, String tempPath) throws IOException {
+		Path directory = tempPath!=null && Files.isDirectory(Paths.get(tempPath)) ? Paths.get(tempPath) : null;
+		Path path = directory!=null ? Files.createTempFile(directory, "tika-worker", ".bin") : Files.createTempFile("tika-worker", ".bin");
+		OutputStream file = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int length;
+			while ((length = in.readInt()) > 0) {
+				while (length > 0) {
+					int n = in.read(buffer, 0, Math.min(length, buffer.length));
+					if (n < 0) throw new IOException("Truncated document");
+					file.write(buffer, 0, n);
+					length -= n;
+				}
+			}
+		} catch (IOException e) {
+			file.close();
+			Files.deleteIfExists(path);
+			throw e;
+		}
+		file.close();
+		return path;
+	}
+
+	/**
+	 * Writer sending the text to the parent by chunks as it is extracted
+	 */
+	private static class TextChunks extends Writer {
+
+		private final DataOutputStream out;
+		private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE);
+
+		TextChunks(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			buffer.append(cbuf, off, len);
+			if (buffer.length() >= CHUNK_SIZE) send(false);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			buffer.append(str, off, off + len);
+			if (buffer.length() >= CHUNK_SIZE) send(false);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			send(true);
+		}
+
+		private void send(boolean all) throws IOException {
+			int length = buffer.length();
+			// a surrogate pair is never split between two chunks
+			if (!all && length > 0 && Character.isHighSurrogate(buffer.charAt(length - 1))) length--;
+			if (length==0) return;
+			byte[] bytes = buffer.substring(0, length).getBytes(UTF8);
+			buffer.delete(0, length);
+			out.writeByte(RESPONSE_TEXT);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
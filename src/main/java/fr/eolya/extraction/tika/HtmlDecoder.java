@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Decodes an html page in a single pass, with the charset given by its byte order mark, 
+ * by the HTTP content type or by its <code>&lt;meta&gt;</code> declaration, in this order, 
+ * UTF-8 being used when none is found. The line breaks are kept.
+ * <p/>
+ * The characters are decoded into a per-thread buffer reused from page to page, the page 
+ * is truncated beyond the maximum number of characters. One decoder is used for one page.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class HtmlDecoder {
+
+	/**
+	 * Number of bytes searched for a meta charset declaration, as in the HTML5 prescan
+	 */
+	private static final int PRESCAN_LENGTH = 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Buffers larger than this are not kept by the threads after the decoding
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+	// <meta charset="utf-8"> or <meta http-equiv="Content-Type" content="text/html; charset=utf-8">
+	private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]*?charset\\s*=\\s*[\"']?\\s*([a-zA-Z0-9_:.\\-]+)", Pattern.CASE_INSENSITIVE);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ThreadLocal<char[]> BUFFERS = new ThreadLocal<char[]>();
+
+	private final int maxChars;
+
+	private Charset charset = null;
+	private long bytesRead = 0;
+	private boolean truncated = false;
+
+	/**
+	 * @param maxChars the maximum number of characters decoded, or -1 for no limit
+	 */
+	HtmlDecoder(int maxChars) {
+		this.maxChars = maxChars;
+	}
+
+	/**
+	 * Decode a page
+	 * @param input the page, not closed by this method
+	 * @param charsetHint the charset given by the HTTP content type, or <code>null</code>
+	 * @return the decoded page
+	 */
+	String decode(InputStream input, String charsetHint) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(input);
+		in.mark(PRESCAN_LENGTH);
+		byte[] head = new byte[PRESCAN_LENGTH];
+		int length = IOUtils.read(in, head);
+		in.reset();
+
+		int bom = 0;
+		if (length >= 3 && head[0]==(byte) 0xEF && head[1]==(byte) 0xBB && head[2]==(byte) 0xBF) {
+			charset = UTF8;
+			bom = 3;
+		} else if (length >= 2 && head[0]==(byte) 0xFE && head[1]==(byte) 0xFF) {
+			charset = Charset.forName("UTF-16BE");
+			bom = 2;
+		} else if (length >= 2 && head[0]==(byte) 0xFF && head[1]==(byte) 0xFE) {
+			charset = Charset.forName("UTF-16LE");
+			bom = 2;
+		} else {
+			charset = forName(charsetHint);
+			if (charset==null) charset = getMetaCharset(head, length);
+			if (charset==null) charset = UTF8;
+		}
+		IOUtils.skipFully(in, bom);
+
+		CountingInputStream counting = new CountingInputStream(in);
+		Reader reader = new InputStreamReader(counting, charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+		char[] buffer = BUFFERS.get();
+		if (buffer==null) buffer = new char[INITIAL_BUFFER_SIZE];
+		int limit = maxChars >= 0 ? maxChars : Integer.MAX_VALUE;
+		int count = 0;
+		while (count < limit) {
+			if (count==buffer.length) buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffer.length, limit));
+			int n = reader.read(buffer, count, Math.min(buffer.length, limit) - count);
+			if (n==-1) break;
+			count += n;
+		}
+		if (count==limit) truncated = (reader.read()!=-1);
+		bytesRead = bom + counting.getByteCount();
+
+		String page = new String(buffer, 0, count);
+		if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+			BUFFERS.set(buffer);
+		} else {
+			BUFFERS.remove();
+		}
+		return page;
+	}
+
+	private static Charset getMetaCharset(byte[] head, int length) {
+		Matcher m = META_CHARSET.matcher(new String(head, 0, length, Charset.forName("ISO-8859-1")));
+		if (!m.find()) return null;
+		Charset charset = forName(m.group(1));
+		// a page whose declaration can be read as ASCII is not UTF-16
+		if (charset!=null && charset.name().startsWith("UTF-16")) charset = UTF8;
+		return charset;
+	}
+
+	private static Charset forName(String name) {
+		if (name==null) return null;
+		try {
+			return Charset.isSupported(name) ? Charset.forName(name) : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the charset used in order to decode the page
+	 */
+	Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return the number of bytes of the page read, beyond the decoded characters if the page was truncated
+	 */
+	long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return <code>true</code> if the page was longer than the maximum number of characters
+	 */
+	boolean isTruncated() {
+		return truncated;
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.Locale;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Replays a parsed Jsoup document as SAX events, so that a SAX based extractor (boilerpipe) 
+ * works on the document already parsed instead of parsing the page again.
+ * <p/>
+ * The element names are reported in upper case, as by the NekoHTML parser boilerpipe is built for.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class JsoupSaxEmitter {
+
+	private JsoupSaxEmitter() {
+	}
+
+	static void emit(Document doc, ContentHandler handler) throws SAXException {
+		handler.startDocument();
+		for (Node child : doc.childNodes()) {
+			emitNode(child, handler);
+		}
+		handler.endDocument();
+	}
+
+	private static void emitNode(Node node, ContentHandler handler) throws SAXException {
+		if (node instanceof TextNode) {
+			characters(((TextNode) node).getWholeText(), handler);
+		} else if (node instanceof DataNode) {
+			characters(((DataNode) node).getWholeData(), handler);
+		} else if (node instanceof Element) {
+			Element element = (Element) node;
+			String name = element.tagName().toUpperCase(Locale.ROOT);
+			AttributesImpl attributes = new AttributesImpl();
+			for (Attribute attribute : element.attributes()) {
+				attributes.addAttribute("", attribute.getKey(), attribute.getKey(), "CDATA", attribute.getValue());
+			}
+			handler.startElement("", name, name, attributes);
+			for (Node child : element.childNodes()) {
+				emitNode(child, handler);
+			}
+			handler.endElement("", name, name);
+		}
+		// comments and doctype are not reported
+	}
+
+	private static void characters(String text, ContentHandler handler) throws SAXException {
+		if (text.length()==0) return;
+		char[] chars = text.toCharArray();
+		handler.characters(chars, 0, chars.length);
+	}
+}
@@ -0,0 +1,367 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+
+/**
+ * Admission control of the extractions by their memory cost.
+ * <p/>
+ * The cost of a document is estimated from its size and content type (a spreadsheet loaded by POI 
+ * needs many times its size, a document converted by an external tool little memory) and drawn from 
+ * a global budget until the end of its extraction. An extraction which does not fit in the remaining 
+ * budget waits, in order of arrival. The large documents also go through a lane of lower concurrency, 
+ * so that a few of them cannot take the whole budget, while the small documents are admitted without 
+ * waiting. One budget can be shared by several {@link TikaExtractor} of a JVM.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class MemoryBudget {
+
+	private static final long MB = 1024 * 1024;
+
+	private static final MediaTypeRegistry REGISTRY = MimeTypes.getDefaultMimeTypes().getMediaTypeRegistry();
+
+	/**
+	 * The cost drawn by an extraction and the lane it went through, given back by {@link MemoryBudget#release(Admission)}
+	 */
+	static final class Admission {
+		private final long cost;
+		private final Semaphore lane;
+		private final long waited;
+
+		private Admission(long cost, Semaphore lane, long waited) {
+			this.cost = cost;
+			this.lane = lane;
+			this.waited = waited;
+		}
+
+		long getCost() {
+			return cost;
+		}
+
+		/**
+		 * @return the time waited in nanoseconds
+		 */
+		long getWaited() {
+			return waited;
+		}
+	}
+
+	private final long budget;
+	private long smallCost = MB;
+	private long largeCost;
+	private int largeConcurrency = 1;
+	private long unknownSize = 4 * MB;
+	private double defaultFactor = 4;
+	private double converterFactor = 1;
+	private long embeddedWait = 10000;
+	private final Map<String, Double> factors = new ConcurrentHashMap<String, Double>();
+
+	private volatile Semaphore largeLane = new Semaphore(1, true);
+
+	// the extractions waiting for the budget, in order of arrival
+	private final ArrayDeque<Object> waiting = new ArrayDeque<Object>();
+	private long used = 0;
+
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder delayed = new LongAdder();
+	private final LongAdder forced = new LongAdder();
+	private final LongAdder waitTime = new LongAdder();
+
+	/**
+	 * @param budget the number of bytes the extractions may use at the same time
+	 */
+	public MemoryBudget(long budget) {
+		if (budget < 1) throw new IllegalArgumentException("budget must be positive");
+		this.budget = budget;
+		this.largeCost = budget / 4;
+		// the parsers keeping the whole document in memory
+		setFactor("application/vnd.ms-excel", 20);
+		setFactor("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", 40);
+		setFactor("application/vnd.oasis.opendocument.spreadsheet", 40);
+		setFactor("application/vnd.openxmlformats-officedocument.wordprocessingml.document", 20);
+		setFactor("application/vnd.openxmlformats-officedocument.presentationml.presentation", 20);
+		setFactor("application/msword", 8);
+		setFactor("application/vnd.ms-powerpoint", 8);
+		setFactor("text/html", 8);
+		setFactor("application/pdf", 4);
+		// the content types sniffed from the first bytes of the office documents whose type is not declared
+		setFactor("application/x-tika-ooxml", 40);
+		setFactor("application/x-tika-msoffice", 20);
+	}
+
+	/**
+	 * Estimate the memory needed in order to extract a document
+	 * @param contentType the content type of the document, or <code>null</code> if it is unknown
+	 * @param size the size of the document in bytes, or -1 if it is unknown
+	 * @param converter <code>true</code> if the document is converted by an external tool
+	 * @return the cost in bytes, at most the whole budget
+	 */
+	public long estimate(String contentType, long size, boolean converter) {
+		double factor = defaultFactor;
+		if (converter) {
+			factor = converterFactor;
+		} else if (contentType!=null) {
+			Double typeFactor = getFactor(contentType);
+			if (typeFactor!=null) factor = typeFactor;
+		}
+		long cost = (long) ((size >= 0 ? size : unknownSize) * factor);
+		return Math.min(Math.max(cost, 1), budget);
+	}
+
+	/**
+	 * @return the factor of the content type or of its closest supertype, or <code>null</code> if none is set
+	 */
+	private Double getFactor(String contentType) {
+		Double factor = factors.get(contentType);
+		if (factor!=null) return factor;
+		MediaType type = MediaType.parse(contentType);
+		if (type==null) return null;
+		for (type = REGISTRY.normalize(type.getBaseType()); type!=null; type = REGISTRY.getSupertype(type)) {
+			factor = factors.get(type.toString());
+			if (factor!=null) return factor;
+		}
+		return null;
+	}
+
+	/**
+	 * Wait until the given cost fits in the budget and draw it. The small costs are drawn without waiting.
+	 * @param cost the cost given by {@link #estimate(String, long, boolean)}
+	 * @return the admission, to be given back to {@link #release(Admission)}
+	 * @throws InterruptedException if the thread is interrupted while waiting, nothing is then drawn
+	 */
+	Admission acquire(long cost) throws InterruptedException {
+		return acquire(cost, -1);
+	}
+
+	/**
+	 * Wait until the given cost fits in the budget and draw it, or draw it anyway after the given time. 
+	 * An embedded document must not wait for the budget held by its container.
+	 * @param cost the cost given by {@link #estimate(String, long, boolean)}
+	 * @param maxWait the time in milliseconds after which the cost is drawn even if it exceeds the budget, 
+	 *        or -1 in order to wait until it fits
+	 * @return the admission, to be given back to {@link #release(Admission)}
+	 * @throws InterruptedException if the thread is interrupted while waiting, nothing is then drawn
+	 */
+	Admission acquire(long cost, long maxWait) throws InterruptedException {
+		long start = System.nanoTime();
+		long limit = start + TimeUnit.MILLISECONDS.toNanos(Math.max(maxWait, 0));
+		if (cost <= smallCost) {
+			synchronized (this) {
+				used += cost;
+			}
+			admitted.increment();
+			return new Admission(cost, null, 0);
+		}
+		boolean delay = false;
+		Semaphore lane = isLarge(cost) ? largeLane : null;
+		if (lane!=null && !lane.tryAcquire()) {
+			delay = true;
+			if (maxWait < 0) {
+				lane.acquire();
+			} else if (!lane.tryAcquire(limit - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+				// goes beside the lane
+				lane = null;
+			}
+		}
+		boolean forced = false;
+		try {
+			Object ticket = new Object();
+			synchronized (this) {
+				waiting.addLast(ticket);
+				try {
+					while (waiting.peekFirst()!=ticket || used + cost > budget) {
+						delay = true;
+						if (maxWait < 0) {
+							wait();
+							continue;
+						}
+						long left = limit - System.nanoTime();
+						if (left <= 0) {
+							forced = true;
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, left);
+					}
+					used += cost;
+				} finally {
+					waiting.remove(ticket);
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			if (lane!=null) lane.release();
+			throw e;
+		}
+		admitted.increment();
+		if (delay) delayed.increment();
+		if (forced) this.forced.increment();
+		long waited = System.nanoTime() - start;
+		waitTime.add(waited);
+		return new Admission(cost, lane, waited);
+	}
+
+	/**
+	 * Give back the cost of a finished extraction and its place in the lane it went through
+	 */
+	void release(Admission admission) {
+		synchronized (this) {
+			used -= admission.cost;
+			notifyAll();
+		}
+		if (admission.lane!=null) admission.lane.release();
+	}
+
+	private boolean isLarge(long cost) {
+		return cost > smallCost && cost >= largeCost;
+	}
+
+	/**
+	 * @param contentType the content type
+	 * @param factor the ratio between the memory needed in order to extract a document of this type and its size
+	 */
+	public void setFactor(String contentType, double factor) {
+		factors.put(contentType, factor);
+	}
+
+	/**
+	 * @param defaultFactor the ratio between the memory needed and the size of the documents of the other types (default 4)
+	 */
+	public void setDefaultFactor(double defaultFactor) {
+		this.defaultFactor = defaultFactor;
+	}
+
+	/**
+	 * @param converterFactor the ratio between the memory needed and the size of the documents converted by an 
+	 *                        external tool, whose output is streamed (default 1)
+	 */
+	public void setConverterFactor(double converterFactor) {
+		this.converterFactor = converterFactor;
+	}
+
+	/**
+	 * @param embeddedWait the time in milliseconds an embedded document waits for the budget before it is extracted 
+	 *        beyond the budget, bounded by the timeout of its container (default 10 s). Its container, waiting for it, 
+	 *        keeps its own part of the budget.
+	 */
+	public void setEmbeddedWait(long embeddedWait) {
+		this.embeddedWait = embeddedWait;
+	}
+
+	public long getEmbeddedWait() {
+		return embeddedWait;
+	}
+
+	/**
+	 * @param unknownSize the size assumed for a document whose size is unknown before it is read (default 4 MB)
+	 */
+	public void setUnknownSize(long unknownSize) {
+		this.unknownSize = unknownSize;
+	}
+
+	/**
+	 * @param smallCost the cost up to which an extraction is admitted without waiting (default 1 MB)
+	 */
+	public void setSmallCost(long smallCost) {
+		this.smallCost = smallCost;
+	}
+
+	public long getSmallCost() {
+		return smallCost;
+	}
+
+	/**
+	 * Set the lane of the large documents, to be called before the budget is used
+	 * @param largeCost the cost from which an extraction goes through the lane of the large documents (default a quarter of the budget)
+	 * @param largeConcurrency the number of large documents extracted at the same time (default 1)
+	 */
+	public void setLargeLane(long largeCost, int largeConcurrency) {
+		if (largeConcurrency < 1) throw new IllegalArgumentException("largeConcurrency must be at least 1");
+		this.largeCost = largeCost;
+		this.largeConcurrency = largeConcurrency;
+		this.largeLane = new Semaphore(largeConcurrency, true);
+	}
+
+	public long getLargeCost() {
+		return largeCost;
+	}
+
+	public int getLargeConcurrency() {
+		return largeConcurrency;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return the number of bytes drawn by the running extractions
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * @return the number of extractions waiting for the budget
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * @return the number of extractions admitted
+	 */
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	/**
+	 * @return the number of extractions which had to wait for the budget or for the lane of the large documents
+	 */
+	public long getDelayed() {
+		return delayed.sum();
+	}
+
+	/**
+	 * @return the number of embedded documents extracted beyond the budget after having waited for it
+	 */
+	public long getForced() {
+		return forced.sum();
+	}
+
+	/**
+	 * @return the cumulated time waited by the extractions in milliseconds
+	 */
+	public long getWaitTimeMillis() {
+		return waitTime.sum() / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBudget [budget=" + budget + ", used=" + getUsed() + ", waiting=" + getWaiting() + ", admitted=" + getAdmitted() 
+				+ ", delayed=" + getDelayed() + ", forced=" + getForced() + ", waitTimeMillis=" + getWaitTimeMillis() + "]";
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+
+/**
+ * Writer holding back the beginning of an extraction which may be abandoned for another route.
+ * The characters are buffered until the buffer is full or {@link #commit()} is called, they are then 
+ * written to the sink and the extraction can no longer be discarded. 
+ * The writer tells whether anything else than whitespace and markup was written.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+class PendingWriter extends Writer {
+
+	private final Writer out;
+	private final int bufferSize;
+	private final boolean markup;
+	private StringBuilderWriter buffer = new StringBuilderWriter();
+	private boolean inTag = false;
+	private boolean content = false;
+
+	/**
+	 * @param out the sink
+	 * @param bufferSize the number of characters held back
+	 * @param markup <code>true</code> if the output is html or xml, whose tags are not content
+	 */
+	PendingWriter(Writer out, int bufferSize, boolean markup) {
+		this.out = out;
+		this.bufferSize = bufferSize;
+		this.markup = markup;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (!content) scan(cbuf, off, len);
+		if (buffer==null) {
+			out.write(cbuf, off, len);
+			return;
+		}
+		buffer.write(cbuf, off, len);
+		if (buffer.getBuilder().length() > bufferSize) commit();
+	}
+
+	private void scan(char[] cbuf, int off, int len) {
+		for (int i = off; i < off + len && !content; i++) {
+			char c = cbuf[i];
+			if (markup && c=='<') {
+				inTag = true;
+			} else if (markup && c=='>') {
+				inTag = false;
+			} else if (!inTag && !Character.isWhitespace(c)) {
+				content = true;
+			}
+		}
+	}
+
+	/**
+	 * Write the characters held back to the sink, the next ones are written directly
+	 */
+	void commit() throws IOException {
+		if (buffer==null) return;
+		StringBuilder held = buffer.getBuilder();
+		buffer = null;
+		for (int start = 0; start < held.length(); start += 8192) {
+			out.write(held.substring(start, Math.min(held.length(), start + 8192)));
+		}
+	}
+
+	boolean isCommitted() {
+		return buffer==null;
+	}
+
+	/**
+	 * @return <code>true</code> if something else than whitespace (and markup) was written
+	 */
+	boolean hasContent() {
+		return content;
+	}
+
+	/**
+	 * The characters held back are not written to the sink until the commit
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (buffer==null) out.flush();
+	}
+
+	/**
+	 * The sink is not closed, it belongs to the caller.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
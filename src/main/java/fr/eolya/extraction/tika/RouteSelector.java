@@ -0,0 +1,363 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses, for each document which can be converted by an external tool (pdftotext, swf2html, djvutxt), 
+ * between the tool and Tika, and falls back to the other route when the chosen one fails or extracts nothing.
+ * <p/>
+ * The choice depends on the size of the document (starting a process costs more than parsing a small 
+ * document), and on the live statistics of both routes for its content type : smoothed throughput 
+ * and rate of failed or empty extractions. Every few documents, the other route is tried in order to 
+ * keep its statistics fresh. Each result tells the decision taken ({@link ExtractionResult#getRouteDecision()}) 
+ * and the selector counts the decisions by reason.
+ * <p/>
+ * The selector is thread-safe and can be shared by several extractors.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class RouteSelector {
+
+	/** Not enough statistics yet, the external tool is used */
+	public static final String REASON_DEFAULT = "default";
+	/** The document is smaller than the minimum size for an external tool */
+	public static final String REASON_SIZE = "size";
+	/** The route with the best throughput */
+	public static final String REASON_THROUGHPUT = "throughput";
+	/** The other route fails or extracts nothing too often */
+	public static final String REASON_ERRORS = "errors";
+	/** The other route is tried in order to refresh its statistics */
+	public static final String REASON_EXPLORE = "explore";
+
+	/**
+	 * The route chosen for a document
+	 */
+	public static final class Decision {
+		private final String route;
+		private final String fallbackRoute;
+		private final String reason;
+		private final String failedRoute;
+
+		Decision(String route, String fallbackRoute, String reason, String failedRoute) {
+			this.route = route;
+			this.fallbackRoute = fallbackRoute;
+			this.reason = reason;
+			this.failedRoute = failedRoute;
+		}
+
+		/**
+		 * @return the route which extracted the document
+		 */
+		public String getRoute() {
+			return route;
+		}
+
+		/**
+		 * @return the route used if the chosen one fails, or <code>null</code>
+		 */
+		public String getFallbackRoute() {
+			return fallbackRoute;
+		}
+
+		/**
+		 * @return why the first route was chosen, one of the <code>REASON_*</code> constants
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		/**
+		 * @return the route chosen first which failed or extracted nothing, or <code>null</code> if there was no fallback
+		 */
+		public String getFailedRoute() {
+			return failedRoute;
+		}
+
+		public boolean isFallback() {
+			return failedRoute!=null;
+		}
+
+		/**
+		 * @return the decision once the fallback route was used
+		 */
+		Decision fallBack() {
+			return new Decision(fallbackRoute, null, reason, route);
+		}
+
+		@Override
+		public String toString() {
+			return route + " (" + reason + (failedRoute!=null ? ", fallback from " + failedRoute : "") + ")";
+		}
+	}
+
+	/**
+	 * Smoothed statistics of one route for one content type
+	 */
+	public static final class RouteStats {
+		private long samples = 0;
+		private double bytesPerSecond = 0;
+		private double errorRate = 0;
+
+		private synchronized void update(long bytes, long nanos, boolean failed, double smoothing) {
+			double weight = samples < 1 / smoothing ? 1.0 / (samples + 1) : smoothing;
+			samples++;
+			errorRate += weight * ((failed ? 1 : 0) - errorRate);
+			// the throughput of the failed extractions is meaningless
+			if (!failed && bytes > 0 && nanos > 0) {
+				double throughput = bytes * 1e9 / nanos;
+				bytesPerSecond = bytesPerSecond==0 ? throughput : bytesPerSecond + weight * (throughput - bytesPerSecond);
+			}
+		}
+
+		public synchronized long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * @return the smoothed number of bytes extracted per second
+		 */
+		public synchronized double getBytesPerSecond() {
+			return bytesPerSecond;
+		}
+
+		/**
+		 * @return the smoothed rate of the extractions which failed or extracted nothing, between 0 and 1
+		 */
+		public synchronized double getErrorRate() {
+			return errorRate;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return String.format("[samples=%d, bytesPerSecond=%.0f, errorRate=%.3f]", samples, bytesPerSecond, errorRate);
+		}
+	}
+
+	private long minConverterSize = 16 * 1024;
+	private int minSamples = 10;
+	private int exploreInterval = 50;
+	private double maxErrorRate = 0.5;
+	private double smoothing = 0.1;
+	private boolean fallback = true;
+
+	private final ConcurrentMap<String, RouteStats> stats = new ConcurrentHashMap<String, RouteStats>();
+	private final ConcurrentMap<String, AtomicLong> documents = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, LongAdder> decisions = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder fallbacks = new LongAdder();
+
+	/**
+	 * Choose the route of a document
+	 * @param contentType the content type of the document
+	 * @param size the size of the document in bytes, or -1 if it is unknown
+	 * @param converterRoute the route of the external tool configured for the content type
+	 * @return the decision
+	 */
+	Decision select(String contentType, long size, String converterRoute) {
+		String tika = TikaExtractor.ROUTE_TIKA;
+		String route = converterRoute;
+		String reason = REASON_DEFAULT;
+		if (size >= 0 && size < minConverterSize) {
+			route = tika;
+			reason = REASON_SIZE;
+		} else {
+			RouteStats converter = getStats(converterRoute, contentType);
+			RouteStats parser = getStats(tika, contentType);
+			if (converter.getSamples() >= minSamples && parser.getSamples() >= minSamples) {
+				boolean converterFails = converter.getErrorRate() > maxErrorRate;
+				boolean parserFails = parser.getErrorRate() > maxErrorRate;
+				if (converterFails!=parserFails) {
+					route = converterFails ? tika : converterRoute;
+					reason = REASON_ERRORS;
+				} else {
+					route = parser.getBytesPerSecond() > converter.getBytesPerSecond() ? tika : converterRoute;
+					reason = REASON_THROUGHPUT;
+				}
+			}
+			if (exploreInterval > 0 && sequence(contentType).incrementAndGet() % exploreInterval==0) {
+				route = tika.equals(route) ? converterRoute : tika;
+				reason = REASON_EXPLORE;
+			}
+		}
+		counter(decisions, reason).increment();
+		String other = tika.equals(route) ? converterRoute : tika;
+		return new Decision(route, fallback ? other : null, reason, null);
+	}
+
+	/**
+	 * Record the outcome of an extraction
+	 * @param failed <code>true</code> if the extraction failed or extracted nothing
+	 */
+	void record(String route, String contentType, long bytes, long nanos, boolean failed) {
+		getOrCreate(key(route, contentType)).update(bytes, nanos, failed, smoothing);
+	}
+
+	void fellBack() {
+		fallbacks.increment();
+	}
+
+	private RouteStats getStats(String route, String contentType) {
+		return getOrCreate(key(route, contentType));
+	}
+
+	private RouteStats getOrCreate(String key) {
+		RouteStats routeStats = stats.get(key);
+		if (routeStats==null) {
+			RouteStats created = new RouteStats();
+			routeStats = stats.putIfAbsent(key, created);
+			if (routeStats==null) routeStats = created;
+		}
+		return routeStats;
+	}
+
+	private static String key(String route, String contentType) {
+		return route + " " + contentType;
+	}
+
+	private static LongAdder counter(ConcurrentMap<String, LongAdder> adders, String key) {
+		LongAdder adder = adders.get(key);
+		if (adder==null) {
+			LongAdder created = new LongAdder();
+			adder = adders.putIfAbsent(key, created);
+			if (adder==null) adder = created;
+		}
+		return adder;
+	}
+
+	private AtomicLong sequence(String contentType) {
+		AtomicLong sequence = documents.get(contentType);
+		if (sequence==null) {
+			AtomicLong created = new AtomicLong();
+			sequence = documents.putIfAbsent(contentType, created);
+			if (sequence==null) sequence = created;
+		}
+		return sequence;
+	}
+
+	/**
+	 * @param minConverterSize the size in bytes under which a document goes to Tika first (default 16 KB), 
+	 *                         starting a process costing more than parsing a small document
+	 */
+	public void setMinConverterSize(long minConverterSize) {
+		this.minConverterSize = minConverterSize;
+	}
+
+	public long getMinConverterSize() {
+		return minConverterSize;
+	}
+
+	/**
+	 * @param minSamples the number of extractions of both routes for a content type before their 
+	 *                   statistics are compared (default 10)
+	 */
+	public void setMinSamples(int minSamples) {
+		this.minSamples = minSamples;
+	}
+
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	/**
+	 * @param exploreInterval one document of a content type out of this number goes to the route 
+	 *                        which would not be chosen (default 50), 0 in order not to explore
+	 */
+	public void setExploreInterval(int exploreInterval) {
+		this.exploreInterval = exploreInterval;
+	}
+
+	public int getExploreInterval() {
+		return exploreInterval;
+	}
+
+	/**
+	 * @param maxErrorRate the rate of failed or empty extractions above which a route is avoided (default 0.5)
+	 */
+	public void setMaxErrorRate(double maxErrorRate) {
+		this.maxErrorRate = maxErrorRate;
+	}
+
+	public double getMaxErrorRate() {
+		return maxErrorRate;
+	}
+
+	/**
+	 * @param smoothing the weight of the last extraction in the statistics, between 0 and 1 (default 0.1)
+	 */
+	public void setSmoothing(double smoothing) {
+		this.smoothing = smoothing;
+	}
+
+	public double getSmoothing() {
+		return smoothing;
+	}
+
+	/**
+	 * @param fallback <code>true</code> in order to extract the document with the other route when the chosen 
+	 *                 one fails or extracts nothing (default)
+	 */
+	public void setFallback(boolean fallback) {
+		this.fallback = fallback;
+	}
+
+	public boolean isFallback() {
+		return fallback;
+	}
+
+	/**
+	 * @param route one of the <code>TikaExtractor.ROUTE_*</code> constants
+	 * @param contentType the content type
+	 * @return the statistics of the route for the content type
+	 */
+	public RouteStats getRouteStats(String route, String contentType) {
+		return getStats(route, contentType);
+	}
+
+	/**
+	 * @return the number of decisions by reason
+	 */
+	public Map<String, Long> getDecisions() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : decisions.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return Collections.unmodifiableMap(counts);
+	}
+
+	/**
+	 * @return the number of documents extracted by the fallback route
+	 */
+	public long getFallbacks() {
+		return fallbacks.sum();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, RouteStats> entry : new TreeMap<String, RouteStats>(stats).entrySet()) {
+			sb.append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
+		}
+		sb.append("decisions ").append(getDecisions()).append(", fallbacks ").append(getFallbacks());
+		return sb.toString();
+	}
+}
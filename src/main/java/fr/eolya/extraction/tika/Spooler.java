@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.tika.io.TikaInputStream;
+
+/**
+ * Puts the documents on disk for the external converters which need a file.
+ * <p/>
+ * A document already backed by a file (a {@link TikaInputStream} created from a file) is used 
+ * in place. The other ones are copied in the scratch directory (a tmpfs is a good choice) with 
+ * large buffers, or with a channel transfer for file streams.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+final class Spooler {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * A document on disk, deleted on close if it is a copy.
+	 */
+	static final class SpooledFile implements Closeable {
+		private final Path path;
+		private final boolean temporary;
+
+		private SpooledFile(Path path, boolean temporary) {
+			this.path = path;
+			this.temporary = temporary;
+		}
+
+		File getFile() {
+			return path.toFile();
+		}
+
+		long size() throws IOException {
+			return Files.size(path);
+		}
+
+		public void close() throws IOException {
+			if (temporary) Files.deleteIfExists(path);
+		}
+	}
+
+	/**
+	 * Scratch directory, or <code>null</code> for the default temporary directory
+	 */
+	private final Path directory;
+
+	/**
+	 * @param directory the scratch directory, the default temporary directory is used if 
+	 *                  <code>null</code>, empty or not an existing directory
+	 */
+	Spooler(String directory) {
+		Path path = null;
+		if (directory!=null && !"".equals(directory)) {
+			path = Paths.get(directory);
+			if (!Files.isDirectory(path)) path = null;
+		}
+		this.directory = path;
+	}
+
+	/**
+	 * @param input the document
+	 * @param suffix the suffix of the file if a copy is needed
+	 * @param context the extraction, the copy fails once its deadline is exceeded, or <code>null</code>
+	 * @return the document on disk, to be closed by the caller
+	 */
+	SpooledFile spool(InputStream input, String suffix, ExtractionContext context) throws IOException {
+		if (input instanceof TikaInputStream && ((TikaInputStream) input).hasFile()) {
+			return new SpooledFile(((TikaInputStream) input).getFile().toPath(), false);
+		}
+		Path path = (directory!=null) ? Files.createTempFile(directory, "tmp", suffix) : Files.createTempFile("tmp", suffix);
+		SpooledFile spooled = new SpooledFile(path, true);
+		boolean done = false;
+		try {
+			FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE);
+			try {
+				if (input instanceof FileInputStream) {
+					transfer(((FileInputStream) input).getChannel(), out, context);
+				} else {
+					copy(context!=null ? context.guard(input) : input, out);
+				}
+			} finally {
+				out.close();
+			}
+			done = true;
+		} finally {
+			if (!done) spooled.close();
+		}
+		return spooled;
+	}
+
+	private static void transfer(FileChannel in, FileChannel out, ExtractionContext context) throws IOException {
+		long position = in.position();
+		long size = in.size();
+		while (position < size) {
+			if (context!=null) context.checkDeadline();
+			long n = in.transferTo(position, size - position, out);
+			if (n <= 0) break;
+			position += n;
+		}
+	}
+
+	private static void copy(InputStream in, FileChannel out) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int len;
+		while ((len = in.read(buffer)) != -1) {
+			ByteBuffer bb = ByteBuffer.wrap(buffer, 0, len);
+			while (bb.hasRemaining()) out.write(bb);
+		}
+	}
+}
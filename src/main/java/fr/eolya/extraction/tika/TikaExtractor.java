@@ -0,0 +1,1883 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import static fr.eolya.extraction.tika.ExtractionResult.META_AUTHOR;
+import static fr.eolya.extraction.tika.ExtractionResult.META_CONTENTSIZE;
+import static fr.eolya.extraction.tika.ExtractionResult.META_CONTENTTYPE;
+import static fr.eolya.extraction.tika.ExtractionResult.META_CREATED;
+import static fr.eolya.extraction.tika.ExtractionResult.META_TITLE;
+import static fr.eolya.extraction.tika.TikaWrapper.CONTENT_TYPE_DJVU;
+import static fr.eolya.extraction.tika.TikaWrapper.CONTENT_TYPE_HTML;
+import static fr.eolya.extraction.tika.TikaWrapper.CONTENT_TYPE_PDF;
+import static fr.eolya.extraction.tika.TikaWrapper.CONTENT_TYPE_SWF;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_HTML;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_METADATA;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_CANOLA;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_DEFAULT;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY;
+import static fr.eolya.extraction.tika.TikaWrapper.OUTPUT_FORMAT_XML;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.ProxyReader;
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineNode;
+import org.apache.pdfbox.util.PDFTextStripper;
+import org.apache.tika.detect.DefaultDetector;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.PasswordProvider;
+import org.apache.tika.parser.html.BoilerpipeContentHandler;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.ExpandedTitleContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.StringUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.jetwick.snacktory.ArticleTextExtractor;
+import de.jetwick.snacktory.JResult;
+import de.jetwick.snacktory.OutputFormatter;
+import de.l3s.boilerpipe.BoilerpipeExtractor;
+import de.l3s.boilerpipe.extractors.ArticleExtractor;
+import de.l3s.boilerpipe.extractors.CanolaExtractor;
+import de.l3s.boilerpipe.extractors.DefaultExtractor;
+import de.l3s.boilerpipe.sax.BoilerpipeHTMLContentHandler;
+import fr.eolya.extraction.htmlformater.HtmlToPlaintTextStreaming;
+import fr.eolya.extraction.htmlformater.IHtmlFormater;
+
+/**
+ * Stateless extraction engine.
+ * <p/>
+ * One instance holds a single parser and detector and can be shared by all the threads of a JVM :
+ * every call to {@link #extract(InputStream, String)} works on its own parse context and returns
+ * its own immutable {@link ExtractionResult}. The setters are meant to be called once, before the
+ * instance is shared.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+public class TikaExtractor {
+
+	public static final String ROUTE_TIKA = "tika";
+	public static final String ROUTE_PDFTOTEXT = "pdftotext";
+	public static final String ROUTE_SWFTOHTML = "swf2html";
+	public static final String ROUTE_DJVUTEXT = "djvutxt";
+	public static final String ROUTE_SNACKTORY = "snacktory";
+	public static final String ROUTE_BOILERPIPE = "boilerpipe";
+
+	/** The content type was not sniffed as no route depends on it, Tika detects it while parsing */
+	public static final String DETECTION_NONE = "none";
+	/** The content type given by the caller was confirmed by the magic bytes */
+	public static final String DETECTION_DECLARED = "declared";
+	/** No content type was given, it was sniffed from the magic bytes */
+	public static final String DETECTION_SNIFFED = "sniffed";
+	/** The content type given by the caller was contradicted by the magic bytes and replaced */
+	public static final String DETECTION_CORRECTED = "corrected";
+
+	// 20130322143113Z00'00' or 20130322143113+02'00' -> 2013-03-22T14:31:13Z
+	private static final Pattern PDF_DATE_UTC = Pattern.compile("[0-9]{14}Z[0-9]{2}'[0-9]{2}'");
+	private static final Pattern PDF_DATE_OFFSET = Pattern.compile("[0-9]{14}\\+[0-9]{2}'[0-9]{2}'");
+	private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+
+	/**
+	 * Lower bound of the number of characters per page used in order to compute the
+	 * pages to convert with pdftotext when a write limit is set
+	 */
+	private static final int PDF_MIN_CHARS_PER_PAGE = 100;
+
+	/**
+	 * Number of bytes read from the head of a document in order to sniff its content type, as much as the Tika magic patterns may need
+	 */
+	private static final int SNIFF_LENGTH = 64 * 1024;
+
+	/**
+	 * Number of characters held back while the extraction may still be abandoned for the fallback route
+	 */
+	private static final int FALLBACK_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Formater of the formatted text format when none is set
+	 */
+	private static final IHtmlFormater DEFAULT_FORMATER = new HtmlToPlaintTextStreaming();
+
+	/**
+	 * Content type sniffed before routing, and the stream to read the document from
+	 */
+	private static final class Sniffed {
+		final InputStream input;
+		final String contentType;
+		final String charset;
+		final String detection;
+
+		Sniffed(InputStream input, String contentType, String charset, String detection) {
+			this.input = input;
+			this.contentType = contentType;
+			this.charset = charset;
+			this.detection = detection;
+		}
+	}
+
+	/**
+	 * Thrown by {@link MetadataHandler} in order to stop the parse once the metadata are known
+	 */
+	private static final class StopParsingException extends SAXException {
+		private static final long serialVersionUID = 1L;
+
+		StopParsingException() {
+			super("Parsing stopped after the document metadata");
+		}
+	}
+
+	/**
+	 * Discards the content and stops the parse at the start of the body : the parsers set the
+	 * metadata before the body, which Tika only starts with the first content element.
+	 */
+	private static final class MetadataHandler extends DefaultHandler {
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			if ("body".equals(localName)) throw new StopParsingException();
+		}
+	}
+
+	private abstract class OutputType {
+		public void process(InputStream input, Writer output, Metadata metadata, ParseContext context) throws Exception {
+			ContentHandler handler = getContentHandler(output, metadata);
+			parser.parse(input, handler, metadata, context);
+		}
+
+		protected abstract ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception;
+	}
+
+	private final OutputType XML = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return getTransformerHandler(output, "xml", encoding, prettyPrint);
+		}
+	};
+
+	private final OutputType HTML = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return new ExpandedTitleContentHandler(getTransformerHandler(output, "html", encoding, prettyPrint));
+		}
+	};
+
+	private final OutputType TEXT = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return new BodyContentHandler(output);
+		}
+	};
+
+	private final OutputType TEXT_FORMATTED = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			// the whole document, the formaters ignore the head
+			return getFormater().getContentHandler(output);
+		}
+	};
+
+	private final OutputType TEXT_MAIN = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return new BoilerpipeContentHandler(output);
+		}
+	};
+
+	/**
+	 * Main text of any document parsed by Tika, with the boilerpipe extractor of the output format : 
+	 * the text blocks are collected from the SAX events and classified at the end of the document
+	 */
+	private final OutputType TEXT_MAIN_BOILERPIPE = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return new BoilerpipeContentHandler(new WriteOutContentHandler(output), getBoilerpipeExtractor());
+		}
+	};
+
+	private final OutputType METADATA = new OutputType() {
+		@Override
+		protected ContentHandler getContentHandler(Writer output, Metadata metadata) throws Exception {
+			return new MetadataHandler();
+		}
+	};
+
+	/**
+	 * Returns a output writer with the given encoding.
+	 *
+	 * @see <a href="https://issues.apache.org/jira/browse/TIKA-277">TIKA-277</a>
+	 * @param output output stream
+	 * @param encoding output encoding,
+	 *                 or <code>null</code> for the platform default
+	 * @return output writer
+	 * @throws UnsupportedEncodingException
+	 *         if the given encoding is not supported
+	 */
+	private static Writer getOutputWriter(OutputStream output, String encoding)
+			throws UnsupportedEncodingException {
+		if (encoding != null) {
+			return new OutputStreamWriter(output, encoding);
+		} else if (System.getProperty("os.name").toLowerCase().startsWith("mac os x")) {
+			// TIKA-324: Override the default encoding on Mac OS X
+			return new OutputStreamWriter(output, "UTF-8");
+		} else {
+			return new OutputStreamWriter(output);
+		}
+	}
+
+	/**
+	 * Returns a transformer handler that serializes incoming SAX events
+	 * to XHTML or HTML (depending the given method) using the given output
+	 * encoding.
+	 *
+	 * @see <a href="https://issues.apache.org/jira/browse/TIKA-277">TIKA-277</a>
+	 * @param output output writer
+	 * @param method "xml" or "html"
+	 * @param encoding output encoding declared in the document,
+	 *                 or <code>null</code> for the platform default
+	 * @return transformer handler
+	 * @throws TransformerConfigurationException
+	 *         if the transformer can not be created
+	 */
+	private static TransformerHandler getTransformerHandler(Writer output, String method, String encoding, boolean prettyPrint)
+			throws TransformerConfigurationException {
+		SAXTransformerFactory factory = (SAXTransformerFactory)SAXTransformerFactory.newInstance();
+		TransformerHandler handler = factory.newTransformerHandler();
+		handler.getTransformer().setOutputProperty(OutputKeys.METHOD, method);
+		handler.getTransformer().setOutputProperty(OutputKeys.INDENT, prettyPrint ? "yes" : "no");
+		if (encoding != null) {
+			handler.getTransformer().setOutputProperty(OutputKeys.ENCODING, encoding);
+		}
+		handler.setResult(new StreamResult(output));
+		return handler;
+	}
+
+	private final Detector detector;
+	private final Parser parser;
+	private final PasswordProvider passwordProvider;
+	private final String outputFormat;
+
+	/**
+	 * Output character encoding
+	 */
+	private final String encoding;
+
+	private boolean prettyPrint = true;
+
+	/**
+	 * Maximum number of characters written for each document, or -1 for no limit
+	 */
+	private int writeLimit = -1;
+
+	/**
+	 * Maximum duration of the extraction of each document in milliseconds, or 0 for no limit
+	 */
+	private long timeout = 0;
+
+	private ExecutorService deadlineExecutor = null;
+	private ScheduledExecutorService deadlineTimer = null;
+
+	private ConverterPool converterPool = new ConverterPool();
+
+	private ExtractionCache cache = null;
+
+	private int maxHtmlSize = -1;
+
+	/**
+	 * Names of the metadata fields kept in the results, or <code>null</code> for all of them
+	 */
+	private Set<String> metadataFields = null;
+
+	/**
+	 * Maximum depth of the embedded documents extracted as separate results, or 0 in order to 
+	 * flatten them into the text of their container
+	 */
+	private int maxEmbeddedDepth = 0;
+	private int maxEmbeddedCount = 1000;
+	private long maxEmbeddedBytes = 256L * 1024 * 1024;
+	private ForkJoinPool embeddedPool = null;
+
+	/**
+	 * Number of pages of the PDF shards converted in parallel, or 0 in order to convert each PDF at once
+	 */
+	private int pdfShardPages = 0;
+	/**
+	 * Number of PDF shards extracted at once by PDFBox, each one holding the whole document in memory
+	 */
+	private int pdfBoxShardConcurrency = 2;
+	private RouteSelector routeSelector = null;
+	private MemoryBudget memoryBudget = null;
+
+	private ExtractionMonitor monitor = ExtractionMonitor.NOOP;
+
+	private IHtmlFormater formater = null;
+
+	private Spooler spooler = new Spooler(null);
+	private String tempPath = null;
+	private String pdfToTextPath = null;
+	private String swfToHtmlPath = null;
+	private String djVuTextPath = null;
+
+	/**
+	 * Password for opening encrypted documents, or <code>null</code>.
+	 */
+	private String password = null;
+
+	public TikaExtractor(String outputFormat, String outputEncoding) {
+		encoding = (outputEncoding==null || "".equals(outputEncoding)) ? "UTF-8" : outputEncoding;
+
+		detector = new DefaultDetector();
+		parser = new AutoDetectParser(detector);
+
+		this.outputFormat = outputFormat;
+
+		passwordProvider = new PasswordProvider() {
+			public String getPassword(Metadata metadata) {
+				return password;
+			}
+		};
+	}
+
+	public TikaExtractor(String outputFormat) {
+		this(outputFormat, "UTF-8");
+	}
+
+	/**
+	 * Extract a document whose content type is unknown
+	 * @param input the document, closed by this method
+	 * @return the extraction result
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(InputStream input) throws Exception {
+		return extract(input, null);
+	}
+
+	/**
+	 * Extract a document
+	 * @param input the document, closed by this method
+	 * @param contentType the content type of the document, used in order to select the fast paths, or <code>null</code>
+	 * @return the extraction result
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(InputStream input, String contentType) throws Exception {
+		StringBuilderWriter output = new StringBuilderWriter();
+		ExtractionResult result = extract(input, contentType, output);
+		return result.withText(output.toString());
+	}
+
+	/**
+	 * Extract a document stored in a file. The file is used in place by Tika and by the external converters.
+	 * @param path the document
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @return the extraction result
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(Path path, String contentType) throws Exception {
+		return extract(TikaInputStream.get(path.toFile()), contentType);
+	}
+
+	/**
+	 * Extract a document stored in a file and stream the extracted content to a caller-supplied sink.
+	 * @param path the document
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @param output the sink, not closed by this method
+	 * @return the extraction result, without text
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(Path path, String contentType, Writer output) throws Exception {
+		return extract(TikaInputStream.get(path.toFile()), contentType, output);
+	}
+
+	public ExtractionResult extract(File file, String contentType) throws Exception {
+		return extract(file.toPath(), contentType);
+	}
+
+	/**
+	 * Extract a document and stream the extracted content to a caller-supplied sink.
+	 * The content is written as it is produced and is not kept in the result.
+	 * @param input the document, closed by this method
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @param output the sink, flushed but not closed by this method
+	 * @return the extraction result, without text
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(InputStream input, String contentType, OutputStream output) throws Exception {
+		Writer writer = getOutputWriter(output, encoding);
+		try {
+			return extract(input, contentType, writer);
+		} finally {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Extract a document and stream the extracted content to a caller-supplied sink.
+	 * The content is written as it is produced and is not kept in the result.
+	 * @param input the document, closed by this method
+	 * @param contentType the content type of the document, or <code>null</code>
+	 * @param output the sink, not closed by this method
+	 * @return the extraction result, without text
+	 * @throws Exception if the parameters are incoherent or the extraction failed
+	 */
+	public ExtractionResult extract(InputStream input, String contentType, Writer output) throws Exception {
+		Sniffed sniffed = sniff(input, contentType);
+		getOutputType(sniffed.contentType);
+		String route = selectRoute(sniffed.contentType);
+		ExtractionResult result;
+		if (routeSelector!=null && isConverterRoute(route)) {
+			result = extractAdaptive(sniffed.input, sniffed.contentType, sniffed.charset, output, route);
+		} else {
+			result = extract(sniffed.input, sniffed.contentType, sniffed.charset, output, route);
+		}
+		return result.withDetection(sniffed.contentType, sniffed.detection);
+	}
+
+	/**
+	 * Extract a document with the route chosen by the route selector between Tika and an external converter, 
+	 * and with the other route if the chosen one fails, even after a partial output, or extracts nothing. 
+	 * The beginning of the output is held back until the first route succeeds so that it can be discarded.
+	 * @param converterRoute the route of the converter configured for the content type
+	 */
+	private ExtractionResult extractAdaptive(InputStream input, String contentType, String charset, Writer output, String converterRoute) 
+			throws Exception {
+		// both routes may read the document
+		Spooler.SpooledFile file = spooler.spool(input, ".tmp", null);
+		try {
+			long size = file.size();
+			RouteSelector.Decision decision = routeSelector.select(contentType, size, converterRoute);
+			PendingWriter pending = decision.getFallbackRoute()!=null ? new PendingWriter(output, FALLBACK_BUFFER_SIZE, 
+					OUTPUT_FORMAT_XML.equals(outputFormat) || OUTPUT_FORMAT_HTML.equals(outputFormat)) : null;
+
+			ExtractionResult result = null;
+			Exception failure = null;
+			long start = System.nanoTime();
+			// both routes share the deadline of the document
+			long deadline = timeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+			try {
+				result = extract(TikaInputStream.get(file.getFile()), contentType, charset, pending!=null ? pending : output, decision.getRoute());
+			} catch (Exception e) {
+				failure = e;
+			}
+			// nothing is expected from the metadata format
+			boolean empty = pending!=null && !pending.hasContent() && !OUTPUT_FORMAT_METADATA.equals(outputFormat);
+			boolean timedOut = result!=null && result.isTimedOut();
+			// Tika keeps the output of a parse which failed on the way
+			boolean parseFailed = result!=null && result.isParseFailed();
+			routeSelector.record(decision.getRoute(), contentType, size, System.nanoTime() - start, failure!=null || empty || timedOut || parseFailed);
+
+			long remaining = deadline!=0 ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) : 0;
+			if ((failure!=null || empty || parseFailed) && !timedOut && pending!=null && !pending.isCommitted() && (deadline==0 || remaining > 0)) {
+				routeSelector.fellBack();
+				decision = decision.fallBack();
+				start = System.nanoTime();
+				try {
+					result = extract(TikaInputStream.get(file.getFile()), contentType, charset, output, decision.getRoute(), null, remaining);
+				} catch (Exception e) {
+					routeSelector.record(decision.getRoute(), contentType, size, System.nanoTime() - start, true);
+					throw e;
+				}
+				routeSelector.record(decision.getRoute(), contentType, size, System.nanoTime() - start, result.isTimedOut() || result.isParseFailed());
+				return result.withRouteDecision(decision);
+			}
+			if (pending!=null) {
+				pending.commit();
+				output.flush();
+			}
+			if (failure!=null) throw failure;
+			return result.withRouteDecision(decision);
+		} finally {
+			input.close();
+			file.close();
+		}
+	}
+
+	/**
+	 * @return <code>true</code> for the routes of the external converters
+	 */
+	private static boolean isConverterRoute(String route) {
+		return ROUTE_PDFTOTEXT.equals(route) || ROUTE_SWFTOHTML.equals(route) || ROUTE_DJVUTEXT.equals(route);
+	}
+
+	/**
+	 * Detect the content type from the magic bytes of the document when a route depends on it. 
+	 * A prefix of the stream is read and the stream is reset : a stream which does not support 
+	 * mark is buffered, a file stream is repositioned so that it can still be copied by the spooler.
+	 * The content type given by the caller is used as a hint and kept when it is consistent
+	 * with the magic bytes.
+	 */
+	private Sniffed sniff(InputStream input, String contentType) throws IOException {
+		String declared = normalizeContentType(contentType);
+		String charset = getCharsetParameter(contentType);
+		if (!needsContentType()) return new Sniffed(input, declared, charset, DETECTION_NONE);
+
+		byte[] prefix = new byte[SNIFF_LENGTH];
+		int length;
+		if (input instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) input).getChannel();
+			long position = channel.position();
+			length = IOUtils.read(input, prefix);
+			channel.position(position);
+		} else {
+			if (!input.markSupported()) input = new BufferedInputStream(input, SNIFF_LENGTH);
+			input.mark(SNIFF_LENGTH);
+			length = IOUtils.read(input, prefix);
+			input.reset();
+		}
+
+		Metadata metadata = new Metadata();
+		if (declared!=null) metadata.set(Metadata.CONTENT_TYPE, declared);
+		if (input instanceof TikaInputStream && ((TikaInputStream) input).hasFile()) {
+			metadata.set(Metadata.RESOURCE_NAME_KEY, ((TikaInputStream) input).getFile().getName());
+		}
+		// the detectors only see the prefix, the container detectors do not open the whole document
+		MediaType type = detector.detect(new ByteArrayInputStream(prefix, 0, length), metadata);
+
+		String detected = (type==null || MediaType.OCTET_STREAM.equals(type)) ? null : type.getBaseType().toString();
+		if (detected==null) return new Sniffed(input, declared, charset, declared!=null ? DETECTION_DECLARED : DETECTION_NONE);
+		if (declared==null) return new Sniffed(input, detected, charset, DETECTION_SNIFFED);
+		if (detected.equals(declared)) return new Sniffed(input, declared, charset, DETECTION_DECLARED);
+		return new Sniffed(input, detected, charset, DETECTION_CORRECTED);
+	}
+
+	/**
+	 * @return the charset parameter of the given content type (text/html; charset=utf-8), or <code>null</code>
+	 */
+	private static String getCharsetParameter(String contentType) {
+		if (contentType==null) return null;
+		for (String parameter : contentType.split(";")) {
+			int equal = parameter.indexOf('=');
+			if (equal!=-1 && "charset".equalsIgnoreCase(parameter.substring(0, equal).trim())) {
+				String charset = parameter.substring(equal + 1).trim().replace("\"", "").replace("'", "");
+				return "".equals(charset) ? null : charset;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the base type of the given content type in lower case, without parameters, or <code>null</code>
+	 */
+	private static String normalizeContentType(String contentType) {
+		if (contentType==null) return null;
+		int semicolon = contentType.indexOf(';');
+		if (semicolon!=-1) contentType = contentType.substring(0, semicolon);
+		contentType = contentType.trim().toLowerCase(Locale.ROOT);
+		return "".equals(contentType) ? null : contentType;
+	}
+
+	/**
+	 * @return <code>true</code> if the route depends on the content type
+	 */
+	private boolean needsContentType() {
+		return (pdfToTextPath!=null && !"".equals(pdfToTextPath)) || (swfToHtmlPath!=null && !"".equals(swfToHtmlPath)) 
+				|| (djVuTextPath!=null && !"".equals(djVuTextPath)) || isHtmlMainTextFormat() || pdfShardPages > 0 || memoryBudget!=null;
+	}
+
+	/**
+	 * Extract a document with the given route, going through the cache if any
+	 */
+	ExtractionResult extract(InputStream input, String contentType, Writer output, String route) throws Exception {
+		return extract(input, contentType, null, output, route);
+	}
+
+	/**
+	 * Extract a document with the given route, going through the cache if any
+	 * @param charset the charset given by the caller with the content type, or <code>null</code>
+	 */
+	private ExtractionResult extract(InputStream input, String contentType, String charset, Writer output, String route) throws Exception {
+		return extract(input, contentType, charset, output, route, null, timeout);
+	}
+
+	/**
+	 * Extract a document with the given route, going through the cache if it is a top-level document
+	 * @param embedded the collector of the documents embedded in this one if it is itself embedded, or <code>null</code>
+	 * @param timeout the maximum duration of the extraction in milliseconds, or 0 for no limit
+	 */
+	private ExtractionResult extract(InputStream input, String contentType, String charset, Writer output, String route, 
+			EmbeddedDocuments embedded, long timeout) throws Exception {
+		// an embedded document is cached with its container and admitted by extractEmbedded()
+		if (embedded!=null) return extractUncached(input, contentType, charset, output, route, embedded, timeout);
+		if (cache==null) return extractAdmitted(input, contentType, charset, output, route, timeout);
+
+		Spooler.SpooledFile spooled = null;
+		long start = System.nanoTime();
+		try {
+			// the digest needs the whole document : a document which is not a file is read once and spooled
+			TikaInputStream stream;
+			String digest;
+			if (input instanceof TikaInputStream && ((TikaInputStream) input).hasFile()) {
+				stream = (TikaInputStream) input;
+				digest = ExtractionCache.digest(stream.getFile());
+			} else {
+				MessageDigest md = DigestUtils.getSha256Digest();
+				spooled = spooler.spool(new DigestInputStream(input, md), ".tmp", null);
+				stream = TikaInputStream.get(spooled.getFile());
+				digest = Hex.encodeHexString(md.digest());
+			}
+
+			String key = ExtractionCache.key(digest, getCacheSettings(route, charset));
+			ExtractionResult cached = cache.get(key);
+			monitor.stage(route, ExtractionMonitor.STAGE_CACHE, System.nanoTime() - start);
+			if (cached!=null) {
+				stream.close();
+				if (cached.getText()!=null) output.write(cached.getText());
+				output.flush();
+				return cached.withContentType(contentType).withText(null);
+			}
+
+			ExtractionCache.CapturingWriter capture = new ExtractionCache.CapturingWriter(output, cache.getMaxEntryChars());
+			ExtractionResult result = extractAdmitted(stream, contentType, charset, capture, route, timeout);
+			if (ExtractionCache.isCacheable(result) && capture.getCaptured()!=null) {
+				cache.put(key, result.withText(capture.getCaptured()));
+			}
+			return result;
+		} finally {
+			input.close();
+			if (spooled!=null) spooled.close();
+		}
+	}
+
+	/**
+	 * Extract a top-level document once the memory budget admits it, a cache hit does not wait
+	 */
+	private ExtractionResult extractAdmitted(InputStream input, String contentType, String charset, Writer output, String route, 
+			long timeout) throws Exception {
+		if (memoryBudget==null) return extractUncached(input, contentType, charset, output, route, null, timeout);
+		long cost = memoryBudget.estimate(contentType, getLength(input), isConverterRoute(route));
+		if (isPdfBoxSharded(contentType, route)) {
+			// each shard loads the whole document
+			cost = Math.min(cost * Math.max(pdfBoxShardConcurrency, 1), memoryBudget.getBudget());
+		}
+		MemoryBudget.Admission admission;
+		try {
+			admission = memoryBudget.acquire(cost);
+			monitor.stage(route, ExtractionMonitor.STAGE_ADMISSION, admission.getWaited());
+		} catch (InterruptedException e) {
+			input.close();
+			throw e;
+		}
+		try {
+			return extractUncached(input, contentType, charset, output, route, null, timeout);
+		} finally {
+			memoryBudget.release(admission);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a top-level document of this type is split into shards converted by PDFBox 
+	 *         when it has enough pages
+	 */
+	private boolean isPdfBoxSharded(String contentType, String route) {
+		// the documents whose embedded documents are collected are not split
+		return pdfShardPages > 0 && CONTENT_TYPE_PDF.equals(contentType) && OUTPUT_FORMAT_TEXT.equals(outputFormat) 
+				&& ROUTE_TIKA.equals(route) && maxEmbeddedDepth <= 0;
+	}
+
+	/**
+	 * @return the settings which change the result of an extraction
+	 */
+	private String getCacheSettings(String route, String charset) {
+		return outputFormat + "|" + route + "|" + charset + "|" + encoding + "|" + prettyPrint + "|" + writeLimit + "|" + maxHtmlSize + "|" + pdfToTextPath + "|" 
+				+ swfToHtmlPath + "|" + djVuTextPath + "|" + (formater!=null ? formater.getSignature() : "") + "|" + metadataFields + "|" 
+				+ maxEmbeddedDepth + "|" + maxEmbeddedCount + "|" + maxEmbeddedBytes + "|" + pdfShardPages;
+	}
+
+	/**
+	 * @return the settings copied into the extractors of the forked workers, the shared objects 
+	 *         (cache, converter pool, monitor, route selector, memory budget) stay in this JVM
+	 */
+	Map<String, String> getWorkerSettings() {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		settings.put("outputFormat", outputFormat);
+		settings.put("encoding", encoding);
+		settings.put("prettyPrint", String.valueOf(prettyPrint));
+		settings.put("writeLimit", String.valueOf(writeLimit));
+		settings.put("timeout", String.valueOf(timeout));
+		settings.put("maxHtmlSize", String.valueOf(maxHtmlSize));
+		settings.put("maxEmbeddedDepth", String.valueOf(maxEmbeddedDepth));
+		settings.put("maxEmbeddedCount", String.valueOf(maxEmbeddedCount));
+		settings.put("maxEmbeddedBytes", String.valueOf(maxEmbeddedBytes));
+		settings.put("pdfShardPages", String.valueOf(pdfShardPages));
+		settings.put("pdfBoxShardConcurrency", String.valueOf(pdfBoxShardConcurrency));
+		settings.put("pdfToTextPath", pdfToTextPath);
+		settings.put("swfToHtmlPath", swfToHtmlPath);
+		settings.put("djVuTextPath", djVuTextPath);
+		settings.put("tempPath", tempPath);
+		settings.put("password", password);
+		settings.put("formater", formater!=null ? formater.getClass().getName() : null);
+		settings.put("formaterSignature", formater!=null ? formater.getSignature() : null);
+		if (formater instanceof HtmlToPlaintTextStreaming) {
+			HtmlToPlaintTextStreaming streaming = (HtmlToPlaintTextStreaming) formater;
+			settings.put("formaterWrapWidth", String.valueOf(streaming.getWrapWidth()));
+			settings.put("formaterLinks", String.valueOf(streaming.isLinks()));
+			settings.put("formaterBaseUri", streaming.getBaseUri());
+		}
+		settings.put("metadataFields", metadataFields!=null ? StringUtil.join(metadataFields, ",") : null);
+		return settings;
+	}
+
+	/**
+	 * @return an extractor built from the settings of {@link #getWorkerSettings()}, the html formater 
+	 *         is created by its no-argument constructor
+	 * @see #newFormater(Map)
+	 */
+	static TikaExtractor fromWorkerSettings(Map<String, String> settings) throws Exception {
+		TikaExtractor extractor = new TikaExtractor(settings.get("outputFormat"), settings.get("encoding"));
+		extractor.setPrettyPrint(Boolean.parseBoolean(settings.get("prettyPrint")));
+		extractor.setWriteLimit(Integer.parseInt(settings.get("writeLimit")));
+		extractor.setTimeout(Long.parseLong(settings.get("timeout")));
+		extractor.setMaxHtmlSize(Integer.parseInt(settings.get("maxHtmlSize")));
+		extractor.setMaxEmbeddedDepth(Integer.parseInt(settings.get("maxEmbeddedDepth")));
+		extractor.setMaxEmbeddedCount(Integer.parseInt(settings.get("maxEmbeddedCount")));
+		extractor.setMaxEmbeddedBytes(Long.parseLong(settings.get("maxEmbeddedBytes")));
+		extractor.setPdfShardPages(Integer.parseInt(settings.get("pdfShardPages")));
+		extractor.setPdfBoxShardConcurrency(Integer.parseInt(settings.get("pdfBoxShardConcurrency")));
+		extractor.setPdfToTextPath(settings.get("pdfToTextPath"));
+		extractor.setSwfToHtmlPath(settings.get("swfToHtmlPath"));
+		extractor.setDjVuTextPath(settings.get("djVuTextPath"));
+		if (settings.get("tempPath")!=null) extractor.setTempPath(settings.get("tempPath"));
+		extractor.setPassword(settings.get("password"));
+		if (settings.get("formater")!=null) extractor.setHtmlFormater(newFormater(settings));
+		if (settings.get("metadataFields")!=null) {
+			extractor.setMetadataFields(settings.get("metadataFields").split(","));
+		}
+		return extractor;
+	}
+
+	/**
+	 * Create the html formater of the settings of {@link #getWorkerSettings()} by its no-argument constructor. 
+	 * The settings of {@link HtmlToPlaintTextStreaming} are restored, those of another formater are lost.
+	 * @return the formater, or <code>null</code> if the settings have none
+	 * @throws IllegalArgumentException if the formater cannot be created or its signature differs from the original one
+	 */
+	static IHtmlFormater newFormater(Map<String, String> settings) {
+		String className = settings.get("formater");
+		if (className==null) return null;
+		IHtmlFormater formater;
+		try {
+			formater = (IHtmlFormater) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("The html formater " + className + " cannot be created by its no-argument constructor", e);
+		}
+		if (formater instanceof HtmlToPlaintTextStreaming && settings.get("formaterWrapWidth")!=null) {
+			HtmlToPlaintTextStreaming streaming = (HtmlToPlaintTextStreaming) formater;
+			streaming.setWrapWidth(Integer.parseInt(settings.get("formaterWrapWidth")));
+			streaming.setLinks(Boolean.parseBoolean(settings.get("formaterLinks")));
+			streaming.setBaseUri(settings.get("formaterBaseUri"));
+		}
+		String signature = settings.get("formaterSignature");
+		if (signature!=null && !signature.equals(formater.getSignature())) {
+			throw new IllegalArgumentException("The html formater " + signature + " is created as " + formater.getSignature() 
+					+ ", its settings cannot be copied into another JVM");
+		}
+		return formater;
+	}
+
+	/**
+	 * @param outputFormat the output format of the new extractor
+	 * @return an extractor with the settings of this one and another output format, sharing the html formater, 
+	 *         converter pool, cache, monitor, route selector and memory budget of this one
+	 */
+	public TikaExtractor withOutputFormat(String outputFormat) throws Exception {
+		Map<String, String> settings = getWorkerSettings();
+		settings.put("outputFormat", outputFormat);
+		settings.remove("formater");
+		TikaExtractor extractor = fromWorkerSettings(settings);
+		extractor.setHtmlFormater(formater);
+		extractor.setConverterPool(converterPool);
+		extractor.setCache(cache);
+		extractor.setMonitor(monitor);
+		extractor.setRouteSelector(routeSelector);
+		extractor.setMemoryBudget(memoryBudget);
+		return extractor;
+	}
+
+	private ExtractionResult extractUncached(InputStream input, String contentType, String charset, Writer output, String route, 
+			EmbeddedDocuments embedded, long timeout) throws Exception {
+		ExtractionContext context = new ExtractionContext(route, contentType, charset, output, writeLimit, timeout, monitor, metadataFields);
+		if (embedded!=null && embedded.getName()!=null) context.setResourceName(embedded.getName());
+		// only Tika sees the embedded documents
+		if (embedded==null && maxEmbeddedDepth > 0 && ROUTE_TIKA.equals(route)) {
+			embedded = new EmbeddedDocuments(this, spooler, getEmbeddedPool(), 
+					new EmbeddedDocuments.Limits(maxEmbeddedDepth, maxEmbeddedCount, maxEmbeddedBytes), 0, null, context.getDeadline());
+		}
+		if (embedded!=null && ROUTE_TIKA.equals(route)) context.setEmbedded(embedded);
+		long bytesIn = getLength(input);
+		CountingInputStream counting = null;
+		if (bytesIn < 0) {
+			counting = new CountingInputStream(input);
+			input = counting;
+		}
+		try {
+			if (context.hasDeadline()) {
+				processWithDeadline(input, context);
+			} else {
+				process(input, context);
+			}
+		} catch (Exception e) {
+			// the write limit and the deadline abort the extraction on purpose
+			if (!context.isWriteLimitReached() && !context.isTimedOut()) {
+				context.complete(null, counting!=null ? counting.getByteCount() : bytesIn, true);
+				throw e;
+			}
+		} finally {
+			input.close();
+		}
+		context.getOutput().flush();
+		long start = System.nanoTime();
+		ExtractionResult result = context.toResult();
+		context.stage(ExtractionMonitor.STAGE_METADATA, start);
+		context.complete(result.getMetaContentType(), counting!=null ? counting.getByteCount() : bytesIn, false);
+		if (context.getEmbedded()!=null) {
+			result = result.withEmbedded(context.getEmbedded().join(), context.getEmbedded().getDropped());
+			if (context.getEmbedded().isTimedOut()) result = result.withTimedOut(true);
+		}
+		return result;
+	}
+
+	/**
+	 * Extract a document embedded in another one
+	 * @param file the copy of the document
+	 * @param contentType the content type given by the container, or <code>null</code>
+	 * @param embedded the collector of the documents embedded in this one, holding the deadline of the top-level document
+	 */
+	ExtractionResult extractEmbedded(Spooler.SpooledFile file, String contentType, EmbeddedDocuments embedded) throws Exception {
+		long remaining = embedded.getTimeout();
+		StringBuilderWriter output = new StringBuilderWriter();
+		Sniffed sniffed = sniff(TikaInputStream.get(file.getFile()), contentType);
+		getOutputType(sniffed.contentType);
+		String route = selectRoute(sniffed.contentType);
+		MemoryBudget.Admission admission = null;
+		if (memoryBudget!=null) {
+			// the container keeps its part of the budget while it waits for this document
+			long cost = memoryBudget.estimate(sniffed.contentType, file.size(), isConverterRoute(route));
+			long maxWait = remaining > 0 ? Math.min(remaining, memoryBudget.getEmbeddedWait()) : memoryBudget.getEmbeddedWait();
+			try {
+				admission = memoryBudget.acquire(cost, maxWait);
+				monitor.stage(route, ExtractionMonitor.STAGE_ADMISSION, admission.getWaited());
+			} catch (InterruptedException e) {
+				sniffed.input.close();
+				throw e;
+			}
+			remaining = embedded.getTimeout();
+		}
+		try {
+			return extract(sniffed.input, sniffed.contentType, sniffed.charset, output, route, embedded, remaining)
+					.withText(output.toString()).withDetection(sniffed.contentType, sniffed.detection);
+		} finally {
+			if (admission!=null) memoryBudget.release(admission);
+		}
+	}
+
+	private synchronized ForkJoinPool getEmbeddedPool() {
+		if (embeddedPool==null) embeddedPool = new ForkJoinPool();
+		return embeddedPool;
+	}
+
+	/**
+	 * @return the size of a document stored in a file, or -1 if it has to be counted while read
+	 */
+	private static long getLength(InputStream input) {
+		try {
+			if (input instanceof TikaInputStream && ((TikaInputStream) input).hasFile()) return ((TikaInputStream) input).getLength();
+			if (input instanceof FileInputStream) return ((FileInputStream) input).getChannel().size();
+		} catch (IOException e) {
+			// counted while read
+		}
+		return -1;
+	}
+
+	private void process(InputStream input, ExtractionContext context) throws Exception {
+		String route = context.getRoute();
+		if (ROUTE_PDFTOTEXT.equals(route)) {
+			processWithPdfToText(input, context);
+		} else if (ROUTE_SWFTOHTML.equals(route)) {
+			processWithSwfToHtml(input, context);
+		} else if (ROUTE_DJVUTEXT.equals(route)) {
+			processWithDjVuText(input, context);
+		} else if (ROUTE_SNACKTORY.equals(route) || ROUTE_BOILERPIPE.equals(route)) {
+			htmlToText(context.guard(input), context);
+		} else {
+			// a stream backed by a file is parsed from the file
+			TikaInputStream stream = (input instanceof TikaInputStream) ? (TikaInputStream) input : TikaInputStream.get(context.guard(input));
+			if (pdfShardPages > 0 && CONTENT_TYPE_PDF.equals(context.getContentType()) && OUTPUT_FORMAT_TEXT.equals(outputFormat) 
+					&& context.getEmbedded()==null) {
+				processWithPdfBox(stream, context);
+			} else {
+				processWithTika(stream, getOutputType(context.getContentType()), context);
+			}
+		}
+	}
+
+	/**
+	 * Run the extraction and abandon it when the deadline is exceeded. 
+	 * <p/>
+	 * The external converters run in the calling thread, which may be a virtual thread : a timer expires 
+	 * the context at the deadline, which kills the process and rejects the writes. The parsers of this JVM 
+	 * cannot be stopped from outside, they run in a worker thread which is interrupted and fails on its 
+	 * next read or write while the caller returns.
+	 */
+	private void processWithDeadline(final InputStream input, final ExtractionContext context) throws Exception {
+		if (isConverterRoute(context.getRoute())) {
+			ScheduledFuture<?> timer = getDeadlineTimer().schedule(new Runnable() {
+				public void run() {
+					context.expire();
+				}
+			}, context.getRemainingMillis(), TimeUnit.MILLISECONDS);
+			try {
+				process(input, context);
+			} finally {
+				timer.cancel(false);
+			}
+			return;
+		}
+		Future<Void> future = getDeadlineExecutor().submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				process(input, context);
+				return null;
+			}
+		});
+		try {
+			future.get(context.getRemainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			context.expire();
+			future.cancel(true);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	private synchronized ExecutorService getDeadlineExecutor() {
+		if (deadlineExecutor==null) {
+			deadlineExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "tika-extractor-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return deadlineExecutor;
+	}
+
+	private synchronized ScheduledExecutorService getDeadlineTimer() {
+		if (deadlineTimer==null) {
+			deadlineTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "tika-deadline");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return deadlineTimer;
+	}
+
+	/**
+	 * @return <code>true</code> if a document of the given declared content type goes to an external tool, 
+	 *         the extraction then mostly waits for the process
+	 */
+	boolean isProcessRoute(String contentType) {
+		return isConverterRoute(selectRoute(normalizeContentType(contentType)));
+	}
+
+	private String selectRoute(String contentType) {
+		if (usePdfToText(contentType)) return ROUTE_PDFTOTEXT;
+		if (useSwfToHtml(contentType)) return ROUTE_SWFTOHTML;
+		if (useDjVuText(contentType)) return ROUTE_DJVUTEXT;
+		if (useAlternateHtmlParser(contentType)) {
+			return OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY.equals(outputFormat) ? ROUTE_SNACKTORY : ROUTE_BOILERPIPE;
+		}
+		return ROUTE_TIKA;
+	}
+
+	private OutputType getOutputType(String contentType) throws Exception {
+		if (OUTPUT_FORMAT_XML.equals(outputFormat)) return XML;
+		if (OUTPUT_FORMAT_HTML.equals(outputFormat)) return HTML;
+		if (OUTPUT_FORMAT_TEXT.equals(outputFormat)) return TEXT;
+		if (OUTPUT_FORMAT_TEXT_FORMATTED.equals(outputFormat)) return TEXT_FORMATTED;
+		if (OUTPUT_FORMAT_TEXT_MAIN.equals(outputFormat)) return TEXT_MAIN;
+		if (OUTPUT_FORMAT_METADATA.equals(outputFormat)) return METADATA;
+		if (!isHtmlMainTextFormat()) throw new Exception("Incoherent parameters (unknown output format)");
+		// the pages go to the html routes, the other documents to Tika
+		if (getBoilerpipeExtractor()!=null) return TEXT_MAIN_BOILERPIPE;
+		if (contentType==null || "".equals(contentType)) throw new Exception("Incoherent parameters (missing content-type)");
+		if (!CONTENT_TYPE_HTML.equals(contentType)) throw new Exception("Incoherent parameters (text/html content-type expected)");
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> for the formats of plain text. The text of pdftotext has no markup, 
+	 *         it is the same for the text and the formatted text formats.
+	 */
+	private boolean isPlainTextFormat() {
+		return OUTPUT_FORMAT_TEXT.equals(outputFormat) || OUTPUT_FORMAT_TEXT_FORMATTED.equals(outputFormat);
+	}
+
+	/**
+	 * @return the formater of the formatted text format
+	 */
+	private IHtmlFormater getFormater() {
+		return formater!=null ? formater : DEFAULT_FORMATER;
+	}
+
+	/**
+	 * @return the boilerpipe extractor of the output format, or <code>null</code> if the format is not a boilerpipe one
+	 */
+	private BoilerpipeExtractor getBoilerpipeExtractor() {
+		if (OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE.equals(outputFormat)) return ArticleExtractor.INSTANCE;
+		if (OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_DEFAULT.equals(outputFormat)) return DefaultExtractor.INSTANCE;
+		if (OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_CANOLA.equals(outputFormat)) return CanolaExtractor.INSTANCE;
+		return null;
+	}
+
+	private boolean isHtmlMainTextFormat() {
+		return OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY.equals(outputFormat) ||
+				OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_DEFAULT.equals(outputFormat) ||
+				OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE.equals(outputFormat) ||
+				OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_CANOLA.equals(outputFormat);
+	}
+
+	private ParseContext newParseContext(ExtractionContext extraction) {
+		ParseContext context = new ParseContext();
+		context.set(Parser.class, parser);
+		context.set(PasswordProvider.class, passwordProvider);
+		if (extraction.getEmbedded()!=null) context.set(EmbeddedDocumentExtractor.class, extraction.getEmbedded());
+		return context;
+	}
+
+	private void processWithTika(InputStream input, OutputType type, ExtractionContext context) throws Exception {
+		long start = System.nanoTime();
+		try {
+			try {
+				type.process(input, context.getOutput(), context.getMetadata(), newParseContext(context));
+			} finally {
+				input.close();
+			}
+		}
+		catch(Exception e) {
+			// keep what was extracted before the failure (encrypted or damaged documents), 
+			// the write limit and the deadline abort the parse on purpose
+			if (!isStopParsing(e) && !context.isWriteLimitReached() && !context.isTimedOut()) context.setParseFailed();
+		}
+		finally {
+			context.stage(ExtractionMonitor.STAGE_PARSE, start);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the parse was stopped by the metadata format, the parsers wrap the exception
+	 */
+	private static boolean isStopParsing(Throwable e) {
+		for (Throwable cause = e; cause!=null; cause = cause.getCause()) {
+			if (cause instanceof StopParsingException) return true;
+		}
+		return false;
+	}
+
+	private void htmlToText(InputStream input, ExtractionContext context) throws Exception {
+		long start = System.nanoTime();
+
+		HtmlDecoder decoder = new HtmlDecoder(maxHtmlSize);
+		String rawData = decoder.decode(input, context.getCharset());
+		if (decoder.isTruncated()) context.setTruncated();
+
+		// the page is parsed once, the metadata are collected before the main text extraction which may alter the document
+		Document doc = Jsoup.parse(rawData);
+		rawData = null;
+		collectHtmlMetas(doc, context);
+
+		String text = null;
+
+		if (OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY.equals(outputFormat)) {
+			ArticleTextExtractor extractor = new ArticleTextExtractor();
+			OutputFormatter outputFormater = new OutputFormatter(10);
+			outputFormater.setNodesToKeepCssSelector("p,h1,h2,h3,h4,h5,h6");
+			JResult res = extractor.extractContent(new JResult(), doc, outputFormater);
+			text = res.getText();
+
+			context.putMeta(META_TITLE, res.getTitle());
+		} else {
+			BoilerpipeHTMLContentHandler handler = new BoilerpipeHTMLContentHandler();
+			JsoupSaxEmitter.emit(doc, handler);
+			text = getBoilerpipeExtractor().getText(handler.toTextDocument());
+		}
+
+		context.putMeta(META_CONTENTSIZE, String.valueOf(decoder.getBytesRead()));
+		context.putMeta(META_CONTENTTYPE, CONTENT_TYPE_HTML + "; charset=" + decoder.getCharset().name());
+		context.stage(ExtractionMonitor.STAGE_HTML, start);
+
+		if (text!=null) context.getOutput().write(text);
+	}
+
+	/**
+	 * Collect the title, author and creation date of an html page in one pass over its title and meta elements
+	 */
+	private static void collectHtmlMetas(Document doc, ExtractionContext context) {
+		if (!context.wantsMeta(META_TITLE) && !context.wantsMeta(META_AUTHOR) && !context.wantsMeta(META_CREATED)) return;
+		String title = null;
+		String author = null;
+		String created = null;
+		for (Element element : doc.select("title, meta[name]")) {
+			if ("title".equals(element.tagName())) {
+				if (title==null) title = element.text();
+			} else {
+				String name = element.attr("name");
+				if (author==null && "Author".equalsIgnoreCase(name)) author = element.attr("content");
+				if (created==null && "CreationDate".equalsIgnoreCase(name)) created = element.attr("content");
+			}
+		}
+		context.putMeta(META_TITLE, title!=null ? title : "");
+		if (author!=null && !"".equals(author)) context.putMeta(META_AUTHOR, author);
+		created = parseCreationDate(created);
+		if (created!=null) context.putMeta(META_CREATED, created);
+	}
+
+	/**
+	 * Convert a PDF date found in a meta tag into ISO 8601
+	 * @param creationDate the PDF date (20130322143113Z00'00' or 20130322143113+02'00'), or <code>null</code>
+	 * @return the ISO date (2013-03-22T14:31:13Z) or <code>null</code> if the date is not recognized
+	 */
+	private static String parseCreationDate(String creationDate) {
+		if (creationDate==null) return null;
+		Matcher m = PDF_DATE_UTC.matcher(creationDate);
+		if (!m.find()) {
+			m = PDF_DATE_OFFSET.matcher(creationDate);
+			if (!m.find()) return null;
+		}
+		return String.format("%1$s-%2$s-%3$sT%4$s:%5$s:%6$sZ",
+				creationDate.substring(0, 4), creationDate.substring(4, 6), creationDate.substring(6, 8), creationDate.substring(8, 10), creationDate.substring(10, 12), creationDate.substring(12, 14));
+	}
+
+	private void processWithPdfToText(InputStream input, ExtractionContext context) throws Exception {
+		long start = System.nanoTime();
+		Spooler.SpooledFile pdfFile = spooler.spool(input, ".pdf", context);
+		context.stage(ExtractionMonitor.STAGE_SPOOL, start);
+		try {
+			context.putMeta(META_CONTENTSIZE, String.valueOf(pdfFile.size()));
+			context.putMeta(META_CONTENTTYPE, CONTENT_TYPE_PDF);
+
+			// Convert with PDFTOTEXT - pdftotext -enc UTF-8 -raw -q -htmlmeta -eol unix [-l lastPage] in.pdf -
+			List<String> command = new ArrayList<String>(Arrays.asList(pdfToTextPath, "-enc", "UTF-8", "-raw", "-q", "-htmlmeta", "-eol", "unix"));
+			boolean metadataOnly = OUTPUT_FORMAT_METADATA.equals(outputFormat);
+			if (!metadataOnly && pdfShardPages > 0) {
+				int pageCount = countPdfPages(pdfFile.getFile());
+				if (pageCount > pdfShardPages) {
+					processWithPdfToTextShards(pdfFile.getFile(), pageCount, command, context);
+					return;
+				}
+			}
+			int lastPage = -1;
+			if (metadataOnly) {
+				// the document info is written in the head, before the text of the first page
+				command.add("-l");
+				command.add("1");
+			} else if (writeLimit >= 0) {
+				// do not convert the pages beyond the write limit
+				lastPage = writeLimit / PDF_MIN_CHARS_PER_PAGE + 1;
+				command.add("-l");
+				command.add(String.valueOf(lastPage));
+			}
+			command.add(pdfFile.getFile().getAbsolutePath());
+			command.add("-");
+
+			Writer output = context.getOutput();
+			int pages = 0;
+			ConverterProcess process = converterPool.start(ROUTE_PDFTOTEXT, command, context);
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+				// Only the head is loaded in memory in order to collect the document info, the body is streamed
+				String head = readPdfToTextHead(reader);
+				start = System.nanoTime();
+				collectHtmlMetas(Jsoup.parse(head), context);
+				context.stage(ExtractionMonitor.STAGE_METADATA, start);
+
+				// with the metadata format, the text is not read and pdftotext is killed on close
+				if (!metadataOnly) {
+					if (isPlainTextFormat()) {
+						pages = writeBodyText(reader, output);
+					} else {
+						output.write(head);
+						String line;
+						while((line = reader.readLine()) != null) {
+							output.write(line);
+							output.write('\n');
+							if (line.indexOf('\f')!=-1) pages++;
+						}
+					}
+					int exitValue = process.waitFor();
+					if (exitValue!=0) throw new IOException("pdftotext failed with exit value " + exitValue);
+				}
+			} finally {
+				// kills pdftotext if the output was not read until the end (write limit)
+				process.close();
+			}
+			// pdftotext ends each page with a form feed, the document may have more pages than the converted ones
+			if (lastPage!=-1 && pages >= lastPage) context.setTruncated();
+		}
+		finally {
+			pdfFile.close();
+		}
+	}
+
+	/**
+	 * Convert a large PDF with one pdftotext process for each shard of pages, as many at once as the converter pool allows
+	 * @param command the pdftotext command without the page range and the files
+	 */
+	private void processWithPdfToTextShards(final File pdfFile, int pageCount, final List<String> command, final ExtractionContext context) throws Exception {
+		final boolean text = isPlainTextFormat();
+		convertPdfShards(getLastPdfPage(pageCount, context), converterPool.getMaxProcesses(), text ? " " : "", new PdfShardConverter() {
+			public String convert(int firstPage, int lastPage, boolean first, boolean last) throws Exception {
+				List<String> shardCommand = new ArrayList<String>(command);
+				shardCommand.addAll(Arrays.asList("-f", String.valueOf(firstPage), "-l", String.valueOf(lastPage), pdfFile.getAbsolutePath(), "-"));
+				StringBuilderWriter output = new StringBuilderWriter();
+				ConverterProcess process = converterPool.start(ROUTE_PDFTOTEXT, shardCommand, context);
+				try {
+					BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+					String head = readPdfToTextHead(reader);
+					if (first) collectHtmlMetas(Jsoup.parse(head), context);
+					if (text) {
+						writeBodyText(reader, output);
+					} else {
+						// the shards are stitched into one html document
+						if (first) output.write(head);
+						boolean keep = first;
+						String line;
+						while((line = reader.readLine()) != null) {
+							if (!keep) {
+								if ("<pre>".equals(line)) keep = true;
+								continue;
+							}
+							if (!last && "</pre>".equals(line)) keep = false;
+							if (keep) {
+								output.write(line);
+								output.write('\n');
+							}
+						}
+					}
+					int exitValue = process.waitFor();
+					if (exitValue!=0) throw new IOException("pdftotext failed with exit value " + exitValue);
+				} finally {
+					process.close();
+				}
+				return output.toString();
+			}
+		}, context);
+	}
+
+	/**
+	 * Extract the text of a large PDF with PDFBox, one shard of pages at a time in each thread, the metadata 
+	 * being collected by Tika. Each shard loads the whole document, at most {@link #getPdfBoxShardConcurrency()} at once.
+	 */
+	private void processWithPdfBox(TikaInputStream stream, ExtractionContext context) throws Exception {
+		final File pdfFile = stream.getFile();
+		int pageCount = countPdfPages(pdfFile);
+		if (pageCount <= pdfShardPages) {
+			processWithTika(stream, TEXT, context);
+			return;
+		}
+		try {
+			// Tika stops at the start of the text
+			processWithTika(TikaInputStream.get(pdfFile), METADATA, context);
+			long start = System.nanoTime();
+			try {
+				convertPdfShards(getLastPdfPage(pageCount, context), pdfBoxShardConcurrency, "", new PdfShardConverter() {
+					public String convert(int firstPage, int lastPage, boolean first, boolean last) throws Exception {
+						PDDocument document = PDDocument.loadNonSeq(pdfFile, null, password!=null ? password : "");
+						try {
+							PDFTextStripper stripper = new PDFTextStripper();
+							stripper.setStartPage(firstPage);
+							stripper.setEndPage(lastPage);
+							StringBuilderWriter output = new StringBuilderWriter();
+							stripper.writeText(document, output);
+							// as Tika, the bookmarks follow the text
+							if (last && document.getDocumentCatalog().getDocumentOutline()!=null) {
+								writePdfOutline(document.getDocumentCatalog().getDocumentOutline(), output);
+							}
+							return replaceInvalidXmlChars(output.getBuilder());
+						} finally {
+							document.close();
+						}
+					}
+				}, context);
+			} finally {
+				context.stage(ExtractionMonitor.STAGE_PARSE, start);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static void writePdfOutline(PDOutlineNode node, Writer output) throws IOException {
+		for (PDOutlineItem item = node.getFirstChild(); item!=null; item = item.getNextSibling()) {
+			if (item.getTitle()!=null) output.write(item.getTitle());
+			output.write('\n');
+			writePdfOutline(item, output);
+		}
+	}
+
+	/**
+	 * @return the text, the characters which are not allowed in XML being replaced by U+FFFD as Tika does
+	 */
+	private static String replaceInvalidXmlChars(StringBuilder text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if ((c < 0x20 && c!='\t' && c!='\n' && c!='\r') || c==0xFFFE || c==0xFFFF) text.setCharAt(i, '\uFFFD');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Converts a range of pages of a PDF
+	 */
+	private interface PdfShardConverter {
+		/**
+		 * @param first <code>true</code> for the first shard of the document
+		 * @param last <code>true</code> for the last shard of the document
+		 */
+		String convert(int firstPage, int lastPage, boolean first, boolean last) throws Exception;
+	}
+
+	/**
+	 * Convert the shards of pages in parallel and write them in order
+	 * @param lastPage the last page to convert
+	 * @param concurrency the number of shards converted at once
+	 * @param separator written between two non empty shards
+	 */
+	private void convertPdfShards(int lastPage, int concurrency, String separator, final PdfShardConverter converter, ExtractionContext context) 
+			throws Exception {
+		int shardCount = (lastPage + pdfShardPages - 1) / pdfShardPages;
+		final Semaphore running = new Semaphore(Math.max(concurrency, 1));
+		List<Future<String>> shards = new ArrayList<Future<String>>(shardCount);
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				final int firstPage = i * pdfShardPages + 1;
+				final int shardLastPage = Math.min(lastPage, firstPage + pdfShardPages - 1);
+				final boolean first = i==0;
+				final boolean last = i==shardCount - 1;
+				running.acquire();
+				try {
+					shards.add(getDeadlineExecutor().submit(new Callable<String>() {
+						public String call() throws Exception {
+							try {
+								return converter.convert(firstPage, shardLastPage, first, last);
+							} finally {
+								running.release();
+							}
+						}
+					}));
+				} catch (RuntimeException e) {
+					running.release();
+					throw e;
+				}
+			}
+			Writer output = context.getOutput();
+			boolean written = false;
+			for (Future<String> shard : shards) {
+				String text;
+				try {
+					text = shard.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+				if (text.length() > 0) {
+					if (written) output.write(separator);
+					output.write(text);
+					written = true;
+				}
+			}
+		} finally {
+			// a failure, the write limit or the deadline stops the other shards and kills their converter
+			for (Future<String> shard : shards) {
+				shard.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * @return the last page to convert, the pages beyond the write limit are not converted
+	 */
+	private int getLastPdfPage(int pageCount, ExtractionContext context) {
+		if (writeLimit < 0) return pageCount;
+		int lastPage = writeLimit / PDF_MIN_CHARS_PER_PAGE + 1;
+		if (lastPage >= pageCount) return pageCount;
+		context.setTruncated();
+		return lastPage;
+	}
+
+	/**
+	 * @return the number of pages of a PDF, or -1 if it cannot be read
+	 */
+	private int countPdfPages(File pdfFile) {
+		try {
+			// the non sequential parser only reads the objects needed
+			PDDocument document = PDDocument.loadNonSeq(pdfFile, null, password!=null ? password : "");
+			try {
+				return document.getNumberOfPages();
+			} finally {
+				document.close();
+			}
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Read the pdftotext output up to the end of the head and add the
+	 * <code>&lt;meta http-equiv='Content-Type' content='text/html; charset=utf-8'&gt;</code> line
+	 */
+	private static String readPdfToTextHead(BufferedReader reader) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		String line;
+		while((line = reader.readLine()) != null) {
+			sb.append(line).append("\n");
+			if ("</head>".equals(line)) {
+				sb.append("<meta http-equiv='Content-Type' content='text/html; charset=utf-8'>").append("\n");
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Stream the text of an html body : tags are removed, entities decoded and
+	 * whitespace normalized the same way as Jsoup <code>Element.text()</code>
+	 * @return the number of form feeds (pdftotext page ends) read
+	 */
+	private static int writeBodyText(BufferedReader reader, Writer output) throws IOException {
+		int formFeeds = 0;
+		boolean started = false;
+		boolean pendingSpace = false;
+		String line;
+		while((line = reader.readLine()) != null) {
+			String text = org.jsoup.parser.Parser.unescapeEntities(HTML_TAG.matcher(line).replaceAll(""), false);
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c=='\f') formFeeds++;
+				if (StringUtil.isWhitespace(c)) {
+					pendingSpace = started;
+				} else {
+					if (pendingSpace) output.write(' ');
+					output.write(c);
+					started = true;
+					pendingSpace = false;
+				}
+			}
+			pendingSpace = started;
+		}
+		return formFeeds;
+	}
+
+	private void processWithSwfToHtml(InputStream input, ExtractionContext context) throws Exception {
+		// Convert with SWF2HTML - swf2html - : the document is sent to the standard input, the html is read from the standard output
+		ConverterProcess process = converterPool.start(ROUTE_SWFTOHTML, Arrays.asList(swfToHtmlPath, "-"), context);
+		try {
+			process.feed(context.guard(input));
+
+			context.putMeta(META_CONTENTTYPE, CONTENT_TYPE_SWF);
+
+			Reader reader = new InputStreamReader(process.getInputStream(), "UTF-8");
+			if ((OUTPUT_FORMAT_TEXT.equals(outputFormat) && formater!=null) || OUTPUT_FORMAT_TEXT_FORMATTED.equals(outputFormat)) {
+				// the formater writes the text as the html is read
+				CountingReader counter = new CountingReader(reader);
+				getFormater().format(counter, context.getOutput());
+				context.putMeta(META_CONTENTSIZE, String.valueOf(counter.getCount()));
+			} else if (OUTPUT_FORMAT_TEXT.equals(outputFormat)) {
+				String data = IOUtils.toString(reader);
+				context.putMeta(META_CONTENTSIZE, String.valueOf(data.length()));
+				context.getOutput().write(Jsoup.parse(data).body().text());
+			} else {
+				context.putMeta(META_CONTENTSIZE, String.valueOf(IOUtils.copyLarge(reader, context.getOutput())));
+			}
+			int exitValue = process.waitFor();
+			if (exitValue!=0) throw new IOException("swf2html failed with exit value " + exitValue);
+		}
+		finally {
+			process.close();
+		}
+	}
+
+	/**
+	 * Counts the characters read
+	 */
+	private static class CountingReader extends ProxyReader {
+		private long count = 0;
+
+		CountingReader(Reader reader) {
+			super(reader);
+		}
+
+		@Override
+		protected void afterRead(int n) {
+			if (n > 0) count += n;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+
+	private void processWithDjVuText(InputStream input, ExtractionContext context) throws Exception {
+		// http://djvu.sourceforge.net/doc/man/djvutxt.html
+		// djvutxt inputdjvufile : the text is read from the standard output
+		long start = System.nanoTime();
+		Spooler.SpooledFile djvuFile = spooler.spool(input, ".djvu", context);
+		context.stage(ExtractionMonitor.STAGE_SPOOL, start);
+		try {
+			ConverterProcess process = converterPool.start(ROUTE_DJVUTEXT, Arrays.asList(djVuTextPath, djvuFile.getFile().getAbsolutePath()), context);
+			try {
+				IOUtils.copyLarge(new InputStreamReader(process.getInputStream(), "UTF-8"), context.getOutput());
+				int exitValue = process.waitFor();
+				if (exitValue!=0) throw new IOException("djvutxt failed with exit value " + exitValue);
+			} finally {
+				process.close();
+			}
+		}
+		finally {
+			djvuFile.close();
+		}
+	}
+
+	public String getOutputFormat() {
+		return outputFormat;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Limit the size of the extracted content. The extraction stops as soon as the limit is reached 
+	 * and the result is flagged as truncated.
+	 * @param writeLimit maximum number of characters written for each document, or -1 for no limit
+	 */
+	public void setWriteLimit(int writeLimit) {
+		this.writeLimit = writeLimit;
+	}
+
+	public int getWriteLimit() {
+		return writeLimit;
+	}
+
+	/**
+	 * Set a wall-clock deadline for each document. When it expires, the external converter is killed, 
+	 * the Tika parse is abandoned and a result flagged as timed out is returned.
+	 * @param timeout maximum duration of the extraction in milliseconds, or 0 for no limit
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the pool running the external converters. By default each extractor has its own pool
+	 * running as many converters as available processors.
+	 * @param converterPool the pool, which may be shared with other extractors
+	 */
+	public void setConverterPool(ConverterPool converterPool) {
+		this.converterPool = converterPool;
+	}
+
+	public ConverterPool getConverterPool() {
+		return converterPool;
+	}
+
+	/**
+	 * Set the cache of the extraction results. On a cache hit, neither Tika nor the external converters run.
+	 * @param cache the cache, which may be shared with other extractors, or <code>null</code> for no cache
+	 */
+	public void setCache(ExtractionCache cache) {
+		this.cache = cache;
+	}
+
+	public ExtractionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set the monitor receiving the duration of each stage and the counters of each extraction
+	 * @param monitor the monitor, for instance an {@link ExtractionMetrics}, or <code>null</code> for no monitoring
+	 */
+	public void setMonitor(ExtractionMonitor monitor) {
+		this.monitor = monitor!=null ? monitor : ExtractionMonitor.NOOP;
+	}
+
+	public ExtractionMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Let a route selector choose between Tika and the configured external converter for each document, 
+	 * and fall back to the other route when the chosen one fails or extracts nothing. The document is 
+	 * then put on disk, as the external converters need it, even if Tika extracts it.
+	 * @param routeSelector the selector, which may be shared with other extractors, or <code>null</code> 
+	 *                      in order to always use the converter
+	 */
+	public void setRouteSelector(RouteSelector routeSelector) {
+		this.routeSelector = routeSelector;
+	}
+
+	public RouteSelector getRouteSelector() {
+		return routeSelector;
+	}
+
+	/**
+	 * Bound the memory used by the concurrent extractions. The cost of each document is estimated from its 
+	 * sniffed content type and its size, and drawn from the budget until the end of its extraction : the 
+	 * extraction waits while the budget is exhausted. The embedded documents are part of the cost of their container.
+	 * @param memoryBudget the budget, which may be shared with other extractors, or <code>null</code> for no admission control
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Limit the size of the html pages decoded by the snacktory and boilerpipe routes. The end of a 
+	 * larger page is ignored and the result is flagged as truncated.
+	 * @param maxHtmlSize maximum number of characters decoded for each page, or -1 for no limit
+	 */
+	public void setMaxHtmlSize(int maxHtmlSize) {
+		this.maxHtmlSize = maxHtmlSize;
+	}
+
+	public int getMaxHtmlSize() {
+		return maxHtmlSize;
+	}
+
+	/**
+	 * Declare the metadata fields needed by the caller, the other fields are neither collected 
+	 * by the external tool and html routes nor kept in the results.
+	 * @param fields the names of the fields (title, Author, Content-Type, ...), none in order to keep all the fields
+	 */
+	public void setMetadataFields(String... fields) {
+		this.metadataFields = fields!=null && fields.length > 0 ? Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList(fields))) : null;
+	}
+
+	/**
+	 * @return the names of the metadata fields kept in the results, or <code>null</code> if all the fields are kept
+	 */
+	public Set<String> getMetadataFields() {
+		return metadataFields;
+	}
+
+	/**
+	 * Extract the documents embedded in the documents parsed by Tika (archive entries, mail attachments, 
+	 * embedded objects) as separate results, in parallel, instead of flattening them into the text of their container.
+	 * @param maxEmbeddedDepth maximum nesting depth of the embedded documents, or 0 in order to flatten them (default)
+	 * @see ExtractionResult#getEmbedded()
+	 */
+	public void setMaxEmbeddedDepth(int maxEmbeddedDepth) {
+		this.maxEmbeddedDepth = maxEmbeddedDepth;
+	}
+
+	public int getMaxEmbeddedDepth() {
+		return maxEmbeddedDepth;
+	}
+
+	/**
+	 * @param maxEmbeddedCount maximum number of embedded documents extracted for each top-level document (default 1000)
+	 */
+	public void setMaxEmbeddedCount(int maxEmbeddedCount) {
+		this.maxEmbeddedCount = maxEmbeddedCount;
+	}
+
+	public int getMaxEmbeddedCount() {
+		return maxEmbeddedCount;
+	}
+
+	/**
+	 * @param maxEmbeddedBytes maximum total size of the embedded documents extracted for each top-level document (default 256 MB)
+	 */
+	public void setMaxEmbeddedBytes(long maxEmbeddedBytes) {
+		this.maxEmbeddedBytes = maxEmbeddedBytes;
+	}
+
+	public long getMaxEmbeddedBytes() {
+		return maxEmbeddedBytes;
+	}
+
+	/**
+	 * @param embeddedPool the pool extracting the embedded documents, a pool with one thread per processor is created if not set
+	 */
+	public synchronized void setEmbeddedPool(ForkJoinPool embeddedPool) {
+		this.embeddedPool = embeddedPool;
+	}
+
+	/**
+	 * Split the PDF documents of more than the given number of pages into shards of this number of pages, 
+	 * converted in parallel by pdftotext or, with the text format, by PDFBox. The shards are written in order.
+	 * @param pdfShardPages the number of pages of each shard, or 0 in order to convert each document at once (default)
+	 */
+	public void setPdfShardPages(int pdfShardPages) {
+		this.pdfShardPages = pdfShardPages;
+	}
+
+	public int getPdfShardPages() {
+		return pdfShardPages;
+	}
+
+	/**
+	 * The shards converted by PDFBox each load the whole document : the memory needed grows with their number. 
+	 * The shards converted by pdftotext run as many at once as the converter pool runs processes.
+	 * @param pdfBoxShardConcurrency the number of shards of a document converted at once by PDFBox (default 2)
+	 */
+	public void setPdfBoxShardConcurrency(int pdfBoxShardConcurrency) {
+		this.pdfBoxShardConcurrency = pdfBoxShardConcurrency;
+	}
+
+	public int getPdfBoxShardConcurrency() {
+		return pdfBoxShardConcurrency;
+	}
+
+	public void setPrettyPrint(boolean prettyPrint) {
+		this.prettyPrint = prettyPrint;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	/**
+	 * Set the scratch directory where the documents are copied for the external converters
+	 * @param tempPath the directory, the system temporary directory is used if it does not exist
+	 */
+	public void setTempPath(String tempPath) {
+		this.tempPath = tempPath;
+		this.spooler = new Spooler(tempPath);
+	}
+
+	public String getTempPath() {
+		return tempPath;
+	}
+
+	public void setPdfToTextPath(String pdfToTextPath) {
+		this.pdfToTextPath = pdfToTextPath;
+	}
+
+	private boolean usePdfToText(String contentType) {
+		return (pdfToTextPath!=null && !"".equals(pdfToTextPath) && CONTENT_TYPE_PDF.equals(contentType));
+	}
+
+	public void setSwfToHtmlPath(String swfToHtmlPath) {
+		this.swfToHtmlPath = swfToHtmlPath;
+	}
+
+	private boolean useSwfToHtml(String contentType) {
+		// swf2html only produces text, Tika gives the metadata
+		return (swfToHtmlPath!=null && !"".equals(swfToHtmlPath) && CONTENT_TYPE_SWF.equals(contentType) && !OUTPUT_FORMAT_METADATA.equals(outputFormat));
+	}
+
+	public void setDjVuTextPath(String djVuTextPath) {
+		this.djVuTextPath = djVuTextPath;
+	}
+
+	private boolean useDjVuText(String contentType) {
+		// djvutxt only produces text, Tika gives the metadata
+		return (djVuTextPath!=null && !"".equals(djVuTextPath) && CONTENT_TYPE_DJVU.equals(contentType) && !OUTPUT_FORMAT_METADATA.equals(outputFormat));
+	}
+
+	/**
+	 * Set the formater of the html produced by swf2html with the text format and of the formatted text format 
+	 * ({@link HtmlToPlaintTextStreaming} by default). With the formatted text format, the formater is driven by 
+	 * the SAX events of the Tika parsers.
+	 * @param formater the formater, shared by the threads
+	 */
+	public void setHtmlFormater(IHtmlFormater formater) {
+		this.formater = formater;
+	}
+
+	public boolean useAlternateHtmlParser(String contentType) {
+		return (CONTENT_TYPE_HTML.equals(contentType) && isHtmlMainTextFormat());
+	}
+}
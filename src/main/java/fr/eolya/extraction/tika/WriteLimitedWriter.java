@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer stopping the extraction once a number of characters has been written.
+ * The characters exceeding the limit are dropped and a {@link WriteLimitReachedException} is thrown, 
+ * which aborts the SAX stream of Tika or the copy of the external tool output.
+ *
+ * @author Eolya Consulting - http://www.eolya.fr/
+ */
+class WriteLimitedWriter extends Writer {
+
+	/**
+	 * Thrown when the write limit is reached.
+	 */
+	static class WriteLimitReachedException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		WriteLimitReachedException(int writeLimit) {
+			super("Write limit of " + writeLimit + " characters reached");
+		}
+	}
+
+	private final Writer out;
+	private final int writeLimit;
+	private int count = 0;
+	private boolean limitReached = false;
+
+	/**
+	 * @param out the underlying writer
+	 * @param writeLimit the maximum number of characters to write
+	 */
+	WriteLimitedWriter(Writer out, int writeLimit) {
+		this.out = out;
+		this.writeLimit = writeLimit;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (limitReached) throw new WriteLimitReachedException(writeLimit);
+		int remaining = writeLimit - count;
+		if (len <= remaining) {
+			out.write(cbuf, off, len);
+			count += len;
+			return;
+		}
+		out.write(cbuf, off, remaining);
+		count = writeLimit;
+		limitReached = true;
+		throw new WriteLimitReachedException(writeLimit);
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		if (limitReached) throw new WriteLimitReachedException(writeLimit);
+		int remaining = writeLimit - count;
+		if (len <= remaining) {
+			out.write(str, off, len);
+			count += len;
+			return;
+		}
+		out.write(str, off, remaining);
+		count = writeLimit;
+		limitReached = true;
+		throw new WriteLimitReachedException(writeLimit);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * The underlying writer is not closed, it belongs to the caller.
+	 */
+	@Override
+	public void close() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * @return <code>true</code> if characters were dropped
+	 */
+	boolean isLimitReached() {
+		return limitReached;
+	}
+}
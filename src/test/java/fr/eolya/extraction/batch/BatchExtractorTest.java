@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.batch;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+import junit.framework.TestCase;
+
+public class BatchExtractorTest extends TestCase {
+
+	@Test
+	public void testBatch() throws Exception {
+		File directory = Files.createTempDirectory("batch").toFile();
+		try {
+			File docs = new File(directory, "docs");
+			FileUtils.copyInputStreamToFile(getClass().getResourceAsStream("../doc/fr.pdf"), new File(docs, "fr.pdf"));
+			FileUtils.copyInputStreamToFile(getClass().getResourceAsStream("../doc/Test.htm"), new File(docs, "sub/Test.htm"));
+			Path manifest = new File(directory, "manifest").toPath();
+
+			BatchExtractor batch = new BatchExtractor(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 2, 1);
+			batch.setManifest(manifest);
+			StringWriter output = new StringWriter();
+			batch.run(Collections.singletonList(docs.toPath()), output);
+			assertEquals(2, batch.getProcessed());
+			assertEquals(0, batch.getFailed());
+			String[] lines = output.toString().split("\n");
+			assertEquals(2, lines.length);
+			for (String line : lines) {
+				assertTrue(line.startsWith("{\"path\":"));
+				assertTrue(line.contains("\"metas\":{"));
+				assertTrue(line.endsWith("}"));
+			}
+
+			// unchanged files are skipped
+			batch = new BatchExtractor(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 2, 1);
+			batch.setManifest(manifest);
+			output = new StringWriter();
+			batch.run(Collections.singletonList(docs.toPath()), output);
+			assertEquals(0, batch.getProcessed());
+			assertEquals(2, batch.getSkipped());
+			assertEquals("", output.toString());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	@Test
+	public void testIncomplete() throws Exception {
+		File directory = Files.createTempDirectory("batch").toFile();
+		try {
+			File docs = new File(directory, "docs");
+			FileUtils.copyInputStreamToFile(getClass().getResourceAsStream("../doc/fr.pdf"), new File(docs, "fr.pdf"));
+			// the end of the document is missing
+			byte[] document = IOUtils.toByteArray(getClass().getResourceAsStream("../doc/Test.doc"));
+			FileUtils.writeByteArrayToFile(new File(docs, "damaged.doc"), Arrays.copyOf(document, document.length / 2));
+			Path manifest = new File(directory, "manifest").toPath();
+
+			BatchExtractor batch = new BatchExtractor(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 2, 1);
+			batch.setManifest(manifest);
+			StringWriter output = new StringWriter();
+			batch.run(Collections.singletonList(docs.toPath()), output);
+			assertEquals(1, batch.getProcessed());
+			assertEquals(1, batch.getFailed());
+			assertTrue(output.toString().contains("\"parseFailed\":true"));
+
+			// the incomplete extraction is retried
+			batch = new BatchExtractor(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 2, 1);
+			batch.setManifest(manifest);
+			batch.run(Collections.singletonList(docs.toPath()), new StringWriter());
+			assertEquals(1, batch.getSkipped());
+			assertEquals(1, batch.getFailed());
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+}
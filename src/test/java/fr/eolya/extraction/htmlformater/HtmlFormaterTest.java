@@ -17,6 +17,7 @@ package fr.eolya.extraction.htmlformater;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 
 import org.junit.Test;
 
@@ -38,4 +39,32 @@ public class HtmlFormaterTest extends TestCase {
 		String plainText = formatter.getPlainText(html);
 		System.out.println(plainText);
 	}
+
+	@Test
+	public void testHtmlToPlaintTextStreaming() throws IOException {
+		String fileName = "../doc/html/f1-psychodrame-chez-red-bull.html";
+		InputStream is = getClass().getResourceAsStream(fileName);
+		java.util.Scanner s = new java.util.Scanner(is).useDelimiter("\\A");
+		String html = s.hasNext() ? s.next() : "";
+		is.close();
+
+		// same output as the DOM based formatter
+		HtmlToPlaintTextStreaming formatter = new HtmlToPlaintTextStreaming();
+		assertEquals(new HtmlToPlaintTextSimple().getPlainText(html), formatter.getPlainText(html));
+
+		StringBuilder output = new StringBuilder();
+		formatter.format(new StringReader(html), output);
+		assertEquals(formatter.getPlainText(html), output.toString());
+
+		String sample = "<p>first <a href='/page'>link</a></p><ul><li>one</li><li>two &amp; three</li></ul>";
+		formatter.setBaseUri("http://www.eolya.fr/");
+		assertEquals("first link <http://www.eolya.fr/page>\n\n\n * one\n * two & three", formatter.getPlainText(sample).trim());
+		formatter.setLinks(false);
+		assertEquals("first link\n\n\n * one\n * two & three", formatter.getPlainText(sample).trim());
+
+		formatter.setWrapWidth(10);
+		for (String line : formatter.getPlainText("<p>one two three four five six</p>").trim().split("\n")) {
+			assertTrue(line, line.length() <= 10);
+		}
+	}
 }
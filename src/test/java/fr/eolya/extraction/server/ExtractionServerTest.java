@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import fr.eolya.extraction.tika.ExtractionResult;
+import fr.eolya.extraction.tika.TikaExtractor;
+import fr.eolya.extraction.tika.TikaWrapper;
+
+import junit.framework.TestCase;
+
+public class ExtractionServerTest extends TestCase {
+
+	private HttpURLConnection post(ExtractionServer server, String format, String contentType) throws IOException {
+		URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + ExtractionServer.PATH_EXTRACT + format);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setChunkedStreamingMode(8192);
+		if (contentType!=null) connection.setRequestProperty("Content-Type", contentType);
+		return connection;
+	}
+
+	private String extract(ExtractionServer server, String format, String fileName) throws IOException {
+		HttpURLConnection connection = post(server, format, null);
+		InputStream is = getClass().getResourceAsStream(fileName);
+		OutputStream os = connection.getOutputStream();
+		IOUtils.copy(is, os);
+		is.close();
+		os.close();
+		assertEquals(200, connection.getResponseCode());
+		return IOUtils.toString(connection.getInputStream(), "UTF-8");
+	}
+
+	@Test
+	public void testExtract() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionServer server = new ExtractionServer(extractor, new InetSocketAddress("127.0.0.1", 0), 2);
+		server.start();
+		try {
+			String expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+			assertEquals(expected, extract(server, TikaWrapper.OUTPUT_FORMAT_TEXT, "../doc/fr.pdf"));
+
+			String html = extract(server, TikaWrapper.OUTPUT_FORMAT_HTML, "../doc/fr.pdf");
+			assertTrue(html.contains("<body>"));
+
+			String metadata = extract(server, TikaWrapper.OUTPUT_FORMAT_METADATA, "../doc/fr.pdf");
+			assertTrue(metadata.startsWith("{\"route\":"));
+			assertTrue(metadata.contains("\"application/pdf\""));
+
+			assertEquals(404, post(server, "unknown", null).getResponseCode());
+
+			HttpURLConnection health = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + ExtractionServer.PATH_HEALTH).openConnection();
+			assertEquals(200, health.getResponseCode());
+			assertTrue(IOUtils.toString(health.getInputStream(), "UTF-8").contains("\"ok\""));
+
+			assertEquals(3, server.getRequests());
+			assertTrue(server.getMetrics().contains("\"requests\":3"));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testRequestHeaders() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setWriteLimit(20);
+		ExtractionServer server = new ExtractionServer(extractor, new InetSocketAddress("127.0.0.1", 0), 1);
+		server.start();
+		try {
+			// the charset of the request is the only hint, the page has no meta tag
+			HttpURLConnection connection = post(server, TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY, "text/html; charset=ISO-8859-7");
+			OutputStream os = connection.getOutputStream();
+			os.write("<html><body><p>\u039a\u03b1\u03bb\u03b7\u03bc\u03ad\u03c1\u03b1 \u03ba\u03cc\u03c3\u03bc\u03b5, \u03c4\u03b9 \u03ba\u03ac\u03bd\u03b5\u03b9\u03c2;</p></body></html>".getBytes("ISO-8859-7"));
+			os.close();
+			assertEquals(200, connection.getResponseCode());
+			String text = IOUtils.toString(connection.getInputStream(), "UTF-8").trim();
+			assertEquals("\u039a\u03b1\u03bb\u03b7\u03bc\u03ad\u03c1\u03b1 \u03ba\u03cc\u03c3\u03bc\u03b5, \u03c4\u03b9 \u03ba", text);
+			// the extraction ended before the response was committed
+			assertEquals("true", connection.getHeaderField(ExtractionServer.HEADER_TRUNCATED));
+			assertEquals("false", connection.getHeaderField(ExtractionServer.HEADER_TIMED_OUT));
+			assertEquals("false", connection.getHeaderField(ExtractionServer.HEADER_PARSE_FAILED));
+			assertEquals("0", connection.getHeaderField(ExtractionServer.HEADER_DROPPED_EMBEDDED));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		ExtractionServer server = new ExtractionServer(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), new InetSocketAddress("127.0.0.1", 0), 1);
+		server.start();
+		try {
+			// the body of the first request is not complete, its extraction holds the only slot
+			HttpURLConnection pending = post(server, TikaWrapper.OUTPUT_FORMAT_TEXT, "text/plain");
+			OutputStream os = pending.getOutputStream();
+			os.write("waiting".getBytes("UTF-8"));
+			os.flush();
+			long deadline = System.currentTimeMillis() + 10000;
+			while (server.getRequests()==0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+			HttpURLConnection rejected = post(server, TikaWrapper.OUTPUT_FORMAT_TEXT, "text/plain");
+			rejected.getOutputStream().write("rejected".getBytes("UTF-8"));
+			assertEquals(503, rejected.getResponseCode());
+			assertEquals("1", rejected.getHeaderField("Retry-After"));
+			assertEquals(1, server.getRejected());
+
+			os.close();
+			assertEquals(200, pending.getResponseCode());
+			assertEquals("waiting", IOUtils.toString(pending.getInputStream(), "UTF-8").trim());
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testAbortAfterCommit() throws Exception {
+		// the extraction fails once the beginning of the text is sent
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT) {
+			@Override
+			public ExtractionResult extract(InputStream input, String contentType, OutputStream output) throws Exception {
+				byte[] line = "The quick brown fox jumps over the lazy dog.\n".getBytes("UTF-8");
+				for (int i=0; i<10000; i++) output.write(line);
+				throw new IOException("Extraction failed");
+			}
+		};
+		ExtractionServer server = new ExtractionServer(extractor, new InetSocketAddress("127.0.0.1", 0), 1);
+		server.start();
+		Socket socket = new Socket("127.0.0.1", server.getAddress().getPort());
+		try {
+			byte[] body = "failing".getBytes("UTF-8");
+			OutputStream os = socket.getOutputStream();
+			os.write(("POST " + ExtractionServer.PATH_EXTRACT + TikaWrapper.OUTPUT_FORMAT_TEXT + " HTTP/1.1\r\nHost: 127.0.0.1\r\n"
+					+ "Content-Type: text/plain\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("UTF-8"));
+			os.write(body);
+			os.flush();
+			socket.setSoTimeout(30000);
+			// the connection is closed before the last chunk
+			String response = IOUtils.toString(socket.getInputStream(), "ISO-8859-1");
+			assertTrue(response.startsWith("HTTP/1.1 200"));
+			assertTrue(response.contains("The quick brown fox"));
+			assertFalse(response.endsWith("\r\n0\r\n\r\n"));
+			assertEquals(1, server.getFailed());
+		} finally {
+			socket.close();
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class AsyncExtractorTest extends TestCase {
+
+	@Test
+	public void testSubmit() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		String[] fileNames = { "../doc/java.pdf", "../doc/fr.pdf", "../doc/en.pdf", "../doc/Test.docx" };
+		AsyncExtractor async = new AsyncExtractor(extractor, 2, 1);
+		try {
+			List<CompletableFuture<ExtractionResult>> futures = new ArrayList<CompletableFuture<ExtractionResult>>();
+			for (String fileName : fileNames) {
+				futures.add(async.submit(getClass().getResourceAsStream(fileName), null));
+			}
+			for (int i = 0; i < fileNames.length; i++) {
+				String expected = extractor.extract(getClass().getResourceAsStream(fileNames[i])).getText();
+				assertEquals(expected, futures.get(i).get().getText());
+			}
+			assertEquals(0, async.getPending());
+		} finally {
+			async.close();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		InputStream blocked = new FilterInputStream(getClass().getResourceAsStream("../doc/java.txt")) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return super.read(b, off, len);
+			}
+		};
+		AsyncExtractor async = new AsyncExtractor(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 1, 0);
+		try {
+			CompletableFuture<ExtractionResult> first = async.submit(blocked, null);
+			final AtomicBoolean closed = new AtomicBoolean();
+			InputStream rejected = new FilterInputStream(getClass().getResourceAsStream("../doc/java.txt")) {
+				@Override
+				public void close() throws IOException {
+					closed.set(true);
+					super.close();
+				}
+			};
+			CompletableFuture<ExtractionResult> second = async.trySubmit(rejected, null);
+			try {
+				second.get();
+				fail("slot should be busy");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			// the stream of a rejected document is closed as the one of an extracted document
+			assertTrue(closed.get());
+			release.countDown();
+			assertTrue(first.get().getText().length() > 0);
+		} finally {
+			async.close();
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		AsyncExtractor async = new AsyncExtractor(new TikaExtractor("unknown"), 1, 0);
+		try {
+			async.submit(getClass().getResourceAsStream("../doc/java.txt"), null).get();
+			fail("extraction should fail");
+		} catch (ExecutionException e) {
+			// expected
+		} finally {
+			async.close();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import fr.eolya.extraction.htmlformater.HtmlToPlaintTextStreaming;
+
+import junit.framework.TestCase;
+
+public class ExtractionCacheTest extends TestCase {
+
+	@Test
+	public void testMemoryCache() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionCache cache = new ExtractionCache(10 * 1024 * 1024);
+		extractor.setCache(cache);
+
+		ExtractionResult first = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		ExtractionResult second = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getMemoryHits());
+		assertEquals(first.getText(), second.getText());
+		assertEquals(first.getMetas(), second.getMetas());
+
+		StringWriter output = new StringWriter();
+		ExtractionResult streamed = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"), null, output);
+		assertNull(streamed.getText());
+		assertEquals(first.getText(), output.toString());
+		assertEquals(2, cache.getMemoryHits());
+
+		// other settings, other entry
+		TikaExtractor htmlExtractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_HTML);
+		htmlExtractor.setCache(cache);
+		htmlExtractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testFormaterSettings() throws Exception {
+		ExtractionCache cache = new ExtractionCache(10 * 1024 * 1024);
+		TikaExtractor wrapped = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED);
+		wrapped.setHtmlFormater(new HtmlToPlaintTextStreaming());
+		wrapped.setCache(cache);
+		TikaExtractor unwrapped = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED);
+		HtmlToPlaintTextStreaming formater = new HtmlToPlaintTextStreaming();
+		formater.setWrapWidth(0);
+		unwrapped.setHtmlFormater(formater);
+		unwrapped.setCache(cache);
+
+		String first = wrapped.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+		String second = unwrapped.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+		// the formaters differ by their settings only
+		assertEquals(2, cache.getMisses());
+		assertFalse(first.equals(second));
+	}
+
+	@Test
+	public void testParseFailed() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionCache cache = new ExtractionCache(10 * 1024 * 1024);
+		extractor.setCache(cache);
+		// the end of the document is missing
+		byte[] document = IOUtils.toByteArray(getClass().getResourceAsStream("../doc/Test.doc"));
+		byte[] damaged = Arrays.copyOf(document, document.length / 2);
+
+		ExtractionResult first = extractor.extract(new ByteArrayInputStream(damaged), "application/msword");
+		assertTrue(first.isParseFailed());
+		extractor.extract(new ByteArrayInputStream(damaged), "application/msword");
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getMemoryHits());
+	}
+
+	@Test
+	public void testDroppedEmbedded() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionCache cache = new ExtractionCache(10 * 1024 * 1024);
+		extractor.setCache(cache);
+		extractor.setMaxEmbeddedDepth(1);
+		// the conversion of the damaged PDF fails, as pdftotext does on a truncated file
+		extractor.setPdfToTextPath(new File("target", "missing-pdftotext").getAbsolutePath());
+		byte[] document = IOUtils.toByteArray(getClass().getResourceAsStream("../doc/java.pdf"));
+		byte[] container = zip(new String[] { "readme.txt", "damaged.pdf" }, 
+				new byte[][] { "readme".getBytes("UTF-8"), Arrays.copyOf(document, document.length / 2) });
+
+		ExtractionResult first = extractor.extract(new ByteArrayInputStream(container));
+		assertEquals(1, first.getEmbedded().size());
+		assertEquals(1, first.getDroppedEmbedded());
+		extractor.extract(new ByteArrayInputStream(container));
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.getMemoryHits());
+	}
+
+	@Test
+	public void testDiskCache() throws Exception {
+		File directory = Files.createTempDirectory("cache").toFile();
+		try {
+			TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+			extractor.setCache(new ExtractionCache(10 * 1024 * 1024, directory.getAbsolutePath(), 10 * 1024 * 1024));
+			ExtractionResult first = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+
+			// a new cache on the same directory, after a process stopped while writing an entry
+			File leftover = new File(directory, "stopped.tmp");
+			FileUtils.writeStringToFile(leftover, "partial");
+			ExtractionCache cache = new ExtractionCache(10 * 1024 * 1024, directory.getAbsolutePath(), 10 * 1024 * 1024);
+			assertEquals(1, cache.getDiskEntries());
+			assertFalse(leftover.exists());
+			extractor.setCache(cache);
+			ExtractionResult second = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+			assertEquals(1, cache.getDiskHits());
+			assertEquals(first.getText(), second.getText());
+			assertEquals(first.getMetas(), second.getMetas());
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	private static byte[] zip(String[] names, byte[][] contents) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		for (int i = 0; i < names.length; i++) {
+			zip.putNextEntry(new ZipEntry(names[i]));
+			zip.write(contents[i]);
+			zip.closeEntry();
+		}
+		zip.close();
+		return bytes.toByteArray();
+	}
+}
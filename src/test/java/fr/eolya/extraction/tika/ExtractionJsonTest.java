@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ExtractionJsonTest extends TestCase {
+
+	@Test
+	public void testJsonEscaping() {
+		StringBuilder sb = new StringBuilder();
+		ExtractionJson.appendJson(sb, "a\"b\\c\nd\u0001");
+		assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", sb.toString());
+	}
+
+	@Test
+	public void testFlags() {
+		ExtractionResult result = new ExtractionResult(TikaExtractor.ROUTE_TIKA, null, "text", null, true, false, true);
+		String json = ExtractionJson.toJson(result);
+		assertTrue(json.startsWith("{\"route\":\"tika\""));
+		assertTrue(json.contains("\"truncated\":true,\"timedOut\":false,\"parseFailed\":true"));
+		assertTrue(json.endsWith("\"text\":\"text\"}"));
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.IOException;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+
+import fr.eolya.extraction.htmlformater.HtmlToPlaintTextStreaming;
+import fr.eolya.extraction.htmlformater.IHtmlFormater;
+
+import junit.framework.TestCase;
+
+public class ForkedExtractorPoolTest extends TestCase {
+
+	@Test
+	public void testExtract() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setMetadataFields("title", "Content-Type");
+		ExtractionResult expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+
+		ForkedExtractorPool pool = new ForkedExtractorPool(extractor, 1);
+		pool.setJvmOptions("-Xmx256m");
+		pool.setMaxDocuments(2);
+		try {
+			for (int i = 0; i < 3; i++) {
+				ExtractionResult result = pool.extract(getClass().getResourceAsStream("../doc/fr.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+				assertEquals(expected.getText(), result.getText());
+				assertEquals(expected.getRoute(), result.getRoute());
+				assertEquals(expected.getMetaTitle(), result.getMetaTitle());
+				assertEquals(expected.getMetadata().names(), result.getMetadata().names());
+			}
+			// the worker was replaced after two documents
+			assertEquals(3, pool.getDocuments());
+			assertEquals(1, pool.getRestarts());
+			assertEquals(0, pool.getCrashes());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStartFailure() throws Exception {
+		ForkedExtractorPool pool = new ForkedExtractorPool(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 1);
+		pool.setJvmOptions("-XX:+NoSuchOption");
+		try {
+			pool.extract(getClass().getResourceAsStream("../doc/fr.pdf"), null);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Cannot start"));
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStartTimeout() throws Exception {
+		ForkedExtractorPool pool = new ForkedExtractorPool(new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT), 1);
+		// the worker waits for a debugger and never answers
+		pool.setJvmOptions("-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,quiet=y,address=127.0.0.1:0");
+		pool.setStartTimeout(1000);
+		long start = System.currentTimeMillis();
+		try {
+			pool.extract(getClass().getResourceAsStream("../doc/fr.pdf"), null);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("Cannot start"));
+			assertTrue(System.currentTimeMillis() - start < 30000);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testFormater() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED);
+		HtmlToPlaintTextStreaming streaming = new HtmlToPlaintTextStreaming();
+		streaming.setWrapWidth(0);
+		streaming.setLinks(false);
+		extractor.setHtmlFormater(streaming);
+		// the settings of the default formater are copied
+		assertEquals(streaming.getSignature(), TikaExtractor.newFormater(extractor.getWorkerSettings()).getSignature());
+
+		SeparatorFormater formater = new SeparatorFormater();
+		extractor.setHtmlFormater(formater);
+		new ForkedExtractorPool(extractor, 1).close();
+		// the settings of another formater are lost
+		formater.separator = "|";
+		try {
+			new ForkedExtractorPool(extractor, 1);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(formater.getSignature()));
+		}
+	}
+
+	public static class SeparatorFormater implements IHtmlFormater {
+		private String separator = "\n";
+
+		public String getPlainText(String html) {
+			return Jsoup.parse(html).text().replace(" ", separator);
+		}
+
+		@Override
+		public String getSignature() {
+			return getClass().getName() + "(" + separator + ")";
+		}
+	}
+}
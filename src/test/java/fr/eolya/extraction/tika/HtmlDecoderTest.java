@@ -0,0 +1,62 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class HtmlDecoderTest extends TestCase {
+
+	@Test
+	public void testCharsetPriority() throws Exception {
+		String page = "<html><head><meta charset=\"iso-8859-1\"></head>\n<body>\u00e9t\u00e9</body></html>";
+
+		// meta declaration
+		HtmlDecoder decoder = new HtmlDecoder(-1);
+		assertEquals(page, decoder.decode(new ByteArrayInputStream(page.getBytes("ISO-8859-1")), null));
+		assertEquals("ISO-8859-1", decoder.getCharset().name());
+
+		// the HTTP content type wins over the meta declaration
+		decoder = new HtmlDecoder(-1);
+		assertEquals(page, decoder.decode(new ByteArrayInputStream(page.getBytes("UTF-8")), "utf-8"));
+		assertEquals("UTF-8", decoder.getCharset().name());
+
+		// the byte order mark wins over everything
+		byte[] bytes = page.getBytes("UTF-16LE");
+		byte[] withBom = new byte[bytes.length + 2];
+		withBom[0] = (byte) 0xFF;
+		withBom[1] = (byte) 0xFE;
+		System.arraycopy(bytes, 0, withBom, 2, bytes.length);
+		decoder = new HtmlDecoder(-1);
+		assertEquals(page, decoder.decode(new ByteArrayInputStream(withBom), "iso-8859-1"));
+		assertEquals(withBom.length, decoder.getBytesRead());
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		String page = "<html><body>0123456789</body></html>";
+		HtmlDecoder decoder = new HtmlDecoder(10);
+		assertEquals("<html><bod", decoder.decode(new ByteArrayInputStream(page.getBytes("UTF-8")), null));
+		assertTrue(decoder.isTruncated());
+
+		decoder = new HtmlDecoder(page.length());
+		assertEquals(page, decoder.decode(new ByteArrayInputStream(page.getBytes("UTF-8")), null));
+		assertFalse(decoder.isTruncated());
+	}
+}
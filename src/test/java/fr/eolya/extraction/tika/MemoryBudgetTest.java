@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class MemoryBudgetTest extends TestCase {
+
+	@Test
+	public void testEstimate() {
+		MemoryBudget budget = new MemoryBudget(1000000000L);
+		String xlsx = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+		assertTrue(budget.estimate(xlsx, 1000, false) > budget.estimate("text/plain", 1000, false));
+		assertEquals(1000, budget.estimate(TikaWrapper.CONTENT_TYPE_PDF, 1000, true));
+		assertEquals(budget.getBudget(), budget.estimate(xlsx, 1000000000L, false));
+		assertTrue(budget.estimate(null, -1, false) > 0);
+		// the office containers sniffed when the type is not declared, and the subtypes of a type with a factor
+		assertEquals(budget.estimate(xlsx, 1000, false), budget.estimate("application/x-tika-ooxml", 1000, false));
+		assertEquals(20000, budget.estimate("application/x-tika-msoffice", 1000, false));
+		assertEquals(40000, budget.estimate("application/vnd.ms-excel.sheet.macroenabled.12", 1000, false));
+	}
+
+	@Test
+	public void testAdmission() throws Exception {
+		final MemoryBudget budget = new MemoryBudget(100);
+		budget.setSmallCost(10);
+		budget.setLargeLane(100, 1);
+		MemoryBudget.Admission first = budget.acquire(60);
+
+		final AtomicReference<MemoryBudget.Admission> second = new AtomicReference<MemoryBudget.Admission>();
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread waiting = new Thread() {
+			public void run() {
+				try {
+					second.set(budget.acquire(60));
+					admitted.countDown();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		waiting.start();
+		assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, budget.getWaiting());
+
+		// the small documents keep flowing
+		budget.release(budget.acquire(5));
+
+		budget.release(first);
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		assertEquals(60, budget.getUsed());
+		assertEquals(1, budget.getDelayed());
+		assertEquals(3, budget.getAdmitted());
+		budget.release(second.get());
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testLargeLane() throws Exception {
+		final MemoryBudget budget = new MemoryBudget(1000);
+		budget.setSmallCost(10);
+		budget.setLargeLane(100, 1);
+		MemoryBudget.Admission first = budget.acquire(200);
+
+		final AtomicReference<MemoryBudget.Admission> second = new AtomicReference<MemoryBudget.Admission>();
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread large = new Thread() {
+			public void run() {
+				try {
+					second.set(budget.acquire(200));
+					admitted.countDown();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		large.start();
+		// enough budget, but one large document at once
+		assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+		budget.release(budget.acquire(50));
+		budget.release(first);
+		assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		budget.release(second.get());
+		assertEquals(0, budget.getUsed());
+
+		// the lane is given back even if the settings changed meanwhile
+		MemoryBudget.Admission third = budget.acquire(200);
+		budget.setSmallCost(500);
+		budget.release(third);
+		budget.setSmallCost(10);
+		final CountDownLatch readmitted = new CountDownLatch(1);
+		Thread again = new Thread() {
+			public void run() {
+				try {
+					budget.release(budget.acquire(200));
+					readmitted.countDown();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		again.start();
+		assertTrue(readmitted.await(5, TimeUnit.SECONDS));
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testForcedAdmission() throws Exception {
+		MemoryBudget budget = new MemoryBudget(1000);
+		budget.setSmallCost(10);
+		budget.setLargeLane(500, 1);
+		MemoryBudget.Admission container = budget.acquire(800);
+		long start = System.currentTimeMillis();
+		MemoryBudget.Admission child = budget.acquire(500, 100);
+		assertTrue(System.currentTimeMillis() - start >= 90);
+		assertEquals(1, budget.getForced());
+		assertEquals(1300, budget.getUsed());
+		budget.release(child);
+		budget.release(container);
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testExtractor() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		String expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+
+		MemoryBudget budget = new MemoryBudget(64 * 1024 * 1024);
+		ExtractionMetrics metrics = new ExtractionMetrics();
+		extractor.setMemoryBudget(budget);
+		extractor.setMonitor(metrics);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		assertEquals(expected, result.getText());
+		assertEquals(TikaExtractor.DETECTION_SNIFFED, result.getDetection());
+		assertEquals(1, budget.getAdmitted());
+		assertEquals(0, budget.getUsed());
+		assertEquals(1, metrics.getRoute(TikaExtractor.ROUTE_TIKA).getStageCount(ExtractionMonitor.STAGE_ADMISSION));
+	}
+
+	@Test
+	public void testCacheHit() throws Exception {
+		final TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		MemoryBudget budget = new MemoryBudget(64 * 1024 * 1024);
+		extractor.setMemoryBudget(budget);
+		extractor.setCache(new ExtractionCache(10 * 1024 * 1024));
+		String expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+		assertEquals(1, budget.getAdmitted());
+
+		// a cache hit does not queue behind the extraction holding the budget
+		MemoryBudget.Admission large = budget.acquire(budget.getBudget());
+		final AtomicReference<String> text = new AtomicReference<String>();
+		Thread hit = new Thread() {
+			public void run() {
+				try {
+					text.set(extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText());
+				} catch (Exception e) {
+					text.set(e.toString());
+				}
+			}
+		};
+		hit.start();
+		hit.join(5000);
+		budget.release(large);
+		hit.join();
+		assertEquals(expected, text.get());
+		assertEquals(2, budget.getAdmitted());
+		assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testPdfBoxShards() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		final MemoryBudget budget = new MemoryBudget(1000000000L);
+		final AtomicReference<Long> used = new AtomicReference<Long>();
+		extractor.setMemoryBudget(budget);
+		extractor.setMonitor(new ExtractionMonitor() {
+			public void stage(String route, String stage, long nanos) {
+				if (STAGE_ADMISSION.equals(stage)) used.set(budget.getUsed());
+			}
+
+			public void extraction(String route, String contentType, long bytesIn, long charsOut, long nanos, boolean failed, boolean timedOut) {
+			}
+		});
+		extractor.setPdfShardPages(1);
+		extractor.setPdfBoxShardConcurrency(3);
+		File pdf = new File(getClass().getResource("../doc/fr.pdf").toURI());
+		extractor.extract(new FileInputStream(pdf));
+		// each PDFBox shard loads the whole document
+		assertEquals(Long.valueOf(3 * budget.estimate(TikaWrapper.CONTENT_TYPE_PDF, pdf.length(), false)), used.get());
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ *  Copyright 2013 Eolya Consulting - http://www.eolya.fr/
+ * 
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fr.eolya.extraction.tika;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+
+import org.junit.Test;
+
+import fr.eolya.extraction.htmlformater.HtmlToPlaintTextSimple;
+
+import junit.framework.TestCase;
+
+public class TikaExtractorTest extends TestCase {
+
+	@Test
+	public void testSharedExtractor() throws Exception {
+		final TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		final String[] fileNames = { "../doc/java.pdf", "../doc/fr.pdf", "../doc/en.pdf", "../doc/Test.docx" };
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<ExtractionResult>> futures = new ArrayList<Future<ExtractionResult>>();
+			for (int i = 0; i < 16; i++) {
+				final String fileName = fileNames[i % fileNames.length];
+				futures.add(executor.submit(new Callable<ExtractionResult>() {
+					public ExtractionResult call() throws Exception {
+						InputStream is = getClass().getResourceAsStream(fileName);
+						return extractor.extract(is);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				ExtractionResult result = futures.get(i).get();
+				assertEquals(TikaExtractor.ROUTE_TIKA, result.getRoute());
+				assertNotNull(result.getText());
+				assertNotNull(result.getMetaContentType());
+				if (i >= fileNames.length) {
+					// same document, same result whatever the thread
+					assertEquals(futures.get(i - fileNames.length).get().getText(), result.getText());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		String expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"), null, output);
+		assertNull(result.getText());
+		assertNotNull(result.getMetaContentType());
+		assertEquals(expected, output.toString("UTF-8"));
+	}
+
+	@Test
+	public void testFormattedText() throws Exception {
+		TikaExtractor formatted = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED);
+		ExtractionResult result = formatted.extract(getClass().getResourceAsStream("../doc/Test.doc"));
+		assertEquals(TikaExtractor.ROUTE_TIKA, result.getRoute());
+		// the title in the head is not part of the text
+		assertEquals("Test\n\n", result.getText());
+
+		// the SAX events are formatted as the html serialized from them
+		TikaExtractor roundTrip = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_FORMATTED);
+		roundTrip.setHtmlFormater(new HtmlToPlaintTextSimple());
+		for (String fileName : new String[] { "../doc/java.pdf", "../doc/annual_gold_price_from_1900.xls" }) {
+			String expected = roundTrip.extract(getClass().getResourceAsStream(fileName)).getText();
+			assertTrue(fileName, expected.length() > 1000);
+			assertEquals(fileName, expected, formatted.extract(getClass().getResourceAsStream(fileName)).getText());
+		}
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		String expected = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf")).getText();
+		File file = new File(getClass().getResource("../doc/fr.pdf").toURI());
+		ExtractionResult result = extractor.extract(file, null);
+		assertEquals(expected, result.getText());
+		assertTrue(file.exists());
+	}
+
+	@Test
+	public void testWriteLimit() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setWriteLimit(100);
+		ExtractionMetrics metrics = new ExtractionMetrics();
+		extractor.setMonitor(metrics);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+		assertTrue(result.isTruncated());
+		assertEquals(100, result.getText().length());
+		assertNotNull(result.getMetaContentType());
+		// a truncation is not a failure
+		assertEquals(1, metrics.getRoute(TikaExtractor.ROUTE_TIKA).getExtractions());
+		assertEquals(0, metrics.getRoute(TikaExtractor.ROUTE_TIKA).getFailures());
+
+		extractor.setWriteLimit(10000000);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+		assertFalse(result.isTruncated());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setTimeout(1);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+		assertTrue(result.isTimedOut());
+		assertEquals(TikaExtractor.ROUTE_TIKA, result.getRoute());
+
+		extractor.setTimeout(60000);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"));
+		assertFalse(result.isTimedOut());
+		assertTrue(result.getText().length() > 0);
+	}
+
+	@Test
+	public void testIncoherentParameters() {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY);
+		try {
+			extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+			fail("text/html content-type expected");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().startsWith("Incoherent parameters"));
+		}
+	}
+
+	@Test
+	public void testBoilerpipeFormats() throws Exception {
+		String[] formats = { TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE, TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_DEFAULT, 
+				TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_CANOLA };
+		String text = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT).extract(getClass().getResourceAsStream("../doc/java.pdf")).getText();
+		for (String format : formats) {
+			// any document parsed by Tika
+			TikaExtractor extractor = new TikaExtractor(format);
+			ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+			assertEquals(format, TikaExtractor.ROUTE_TIKA, result.getRoute());
+			assertTrue(format, result.getText().trim().length() > 0);
+			assertTrue(format, result.getText().length() <= text.length());
+			assertEquals(TikaWrapper.CONTENT_TYPE_PDF, result.getMetaContentType());
+
+			result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"));
+			assertEquals(format, TikaExtractor.ROUTE_BOILERPIPE, result.getRoute());
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionMetrics metrics = new ExtractionMetrics();
+		extractor.setMonitor(metrics);
+
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		ExtractionMetrics.RouteMetrics tika = metrics.getRoute(TikaExtractor.ROUTE_TIKA);
+		assertEquals(1, tika.getExtractions());
+		assertEquals(0, tika.getFailures());
+		assertTrue(tika.getBytesIn() > 0);
+		assertEquals(result.getText().length(), tika.getCharsOut());
+		assertEquals(1, tika.getStageCount(ExtractionMonitor.STAGE_PARSE));
+		assertEquals(Long.valueOf(1), metrics.getContentTypes().get(TikaWrapper.CONTENT_TYPE_PDF));
+	}
+
+	@Test
+	public void testSniffing() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"));
+		assertEquals(TikaExtractor.ROUTE_SNACKTORY, result.getRoute());
+		assertEquals(TikaExtractor.DETECTION_SNIFFED, result.getDetection());
+		assertEquals(TikaWrapper.CONTENT_TYPE_HTML, result.getDetectedContentType());
+
+		result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"), "application/octet-stream");
+		assertEquals(TikaExtractor.ROUTE_SNACKTORY, result.getRoute());
+		assertEquals(TikaExtractor.DETECTION_CORRECTED, result.getDetection());
+
+		result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"), "text/html; charset=utf-8");
+		assertEquals(TikaExtractor.DETECTION_DECLARED, result.getDetection());
+
+		// no route depends on the content type
+		extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/fr.pdf"));
+		assertEquals(TikaExtractor.DETECTION_NONE, result.getDetection());
+	}
+
+	@Test
+	public void testHtmlCharset() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_BOILERPIPE_ARTICLE);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"), TikaWrapper.CONTENT_TYPE_HTML);
+		assertEquals("charset=ISO-8859-1", result.getMetaCharSet());
+		assertTrue(result.getText().contains("a remport\u00e9 dimanche"));
+		assertFalse(result.isTruncated());
+
+		extractor.setMaxHtmlSize(1000);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/html/f1-psychodrame-chez-red-bull.html"), TikaWrapper.CONTENT_TYPE_HTML);
+		assertTrue(result.isTruncated());
+	}
+
+	@Test
+	public void testMetadataOnly() throws Exception {
+		ExtractionResult full = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT).extract(getClass().getResourceAsStream("../doc/Test.docx"));
+
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_METADATA);
+		ExtractionMetrics metrics = new ExtractionMetrics();
+		extractor.setMonitor(metrics);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/Test.docx"));
+		assertEquals("", result.getText());
+		assertEquals(full.getMetaTitle(), result.getMetaTitle());
+		assertEquals(full.getMetaAuthor(), result.getMetaAuthor());
+		assertEquals(full.getMetas(), result.getMetas());
+		// stopping the parse is not a failure
+		assertEquals(0, metrics.getRoute(TikaExtractor.ROUTE_TIKA).getFailures());
+	}
+
+	@Test
+	public void testMetadataFields() throws Exception {
+		ExtractionResult full = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT).extract(getClass().getResourceAsStream("../doc/Test.docx"));
+		DocumentMetadata metadata = full.getMetadata();
+		assertEquals(full.getMetas().keySet(), metadata.names());
+		assertEquals(full.getMetaContentType(), metadata.getContentType());
+		if (full.getMetaCreated()!=null) assertNotNull(metadata.getCreated());
+
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		extractor.setMetadataFields(ExtractionResult.META_TITLE, ExtractionResult.META_CONTENTTYPE);
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/Test.docx"));
+		assertTrue(result.getMetadata().size() <= 2);
+		assertEquals(full.getMetaTitle(), result.getMetaTitle());
+		assertEquals(full.getMetaContentType(), result.getMetaContentType());
+		assertNull(result.getMetaAuthor());
+		assertEquals(full.getText(), result.getText());
+
+		// the html routes do not collect the other fields either
+		extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT_MAIN_SNACKTORY);
+		extractor.setMetadataFields(ExtractionResult.META_CONTENTSIZE);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/Test.htm"), TikaWrapper.CONTENT_TYPE_HTML);
+		assertEquals(1, result.getMetadata().size());
+		assertTrue(result.getMetadata().getContentSize() > 0);
+	}
+
+	@Test
+	public void testEmbeddedDocuments() throws Exception {
+		byte[] inner = zip(new String[] { "fr.pdf" }, new byte[][] { resource("../doc/fr.pdf") });
+		byte[] outer = zip(new String[] { "en.pdf", "Test.docx", "inner.zip" }, 
+				new byte[][] { resource("../doc/en.pdf"), resource("../doc/Test.docx"), inner });
+
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionResult flat = extractor.extract(new ByteArrayInputStream(outer));
+		assertTrue(flat.getEmbedded().isEmpty());
+
+		extractor.setMaxEmbeddedDepth(2);
+		ExtractionResult result = extractor.extract(new ByteArrayInputStream(outer));
+		assertEquals(3, result.getEmbedded().size());
+		ExtractionResult pdf = result.getEmbedded().get(0);
+		assertEquals("en.pdf", pdf.getMetadata().get("resourceName"));
+		assertEquals(extractor.extract(getClass().getResourceAsStream("../doc/en.pdf")).getText(), pdf.getText());
+		assertEquals(TikaWrapper.CONTENT_TYPE_PDF, pdf.getMetaContentType());
+		ExtractionResult zip = result.getEmbedded().get(2);
+		assertEquals(1, zip.getEmbedded().size());
+		assertEquals("fr.pdf", zip.getEmbedded().get(0).getMetadata().get("resourceName"));
+		// the container does not hold the text of the embedded documents any more
+		assertTrue(result.getText().length() < flat.getText().length());
+
+		// limits
+		extractor.setMaxEmbeddedDepth(1);
+		result = extractor.extract(new ByteArrayInputStream(outer));
+		assertEquals(3, result.getEmbedded().size());
+		assertTrue(result.getEmbedded().get(2).getEmbedded().isEmpty());
+		extractor.setMaxEmbeddedCount(2);
+		assertEquals(2, extractor.extract(new ByteArrayInputStream(outer)).getEmbedded().size());
+	}
+
+	@Test
+	public void testDroppedEmbeddedDocuments() throws Exception {
+		byte[] text = "embedded".getBytes("UTF-8");
+		byte[] outer = zip(new String[] { "good.txt", "bad.txt", "slow.txt" }, new byte[][] { text, text, text });
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT) {
+			@Override
+			ExtractionResult extractEmbedded(Spooler.SpooledFile file, String contentType, EmbeddedDocuments embedded) throws Exception {
+				if ("bad.txt".equals(embedded.getName())) throw new IOException("Damaged document");
+				if ("slow.txt".equals(embedded.getName())) Thread.sleep(3000);
+				return super.extractEmbedded(file, contentType, embedded);
+			}
+		};
+		extractor.setMaxEmbeddedDepth(1);
+		extractor.setTimeout(1000);
+		ExtractionResult result = extractor.extract(new ByteArrayInputStream(outer));
+		// the failed document and the one abandoned at the deadline are counted
+		assertEquals(1, result.getEmbedded().size());
+		assertEquals("good.txt", result.getEmbedded().get(0).getMetadata().get("resourceName"));
+		assertEquals(2, result.getDroppedEmbedded());
+		assertTrue(result.isTimedOut());
+	}
+
+	@Test
+	public void testPdfShards() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		ExtractionResult whole = extractor.extract(getClass().getResourceAsStream("../doc/en.pdf"));
+
+		extractor.setPdfShardPages(2);
+		ExtractionResult sharded = extractor.extract(getClass().getResourceAsStream("../doc/en.pdf"));
+		assertEquals(TikaExtractor.ROUTE_TIKA, sharded.getRoute());
+		assertEquals(whole.getText().replaceAll("\\s+", " ").trim(), sharded.getText().replaceAll("\\s+", " ").trim());
+		assertEquals(whole.getMetas(), sharded.getMetas());
+
+		// one shard at a time holds the document
+		extractor.setPdfBoxShardConcurrency(1);
+		assertEquals(sharded.getText(), extractor.extract(getClass().getResourceAsStream("../doc/en.pdf")).getText());
+
+		extractor.setWriteLimit(300);
+		sharded = extractor.extract(getClass().getResourceAsStream("../doc/en.pdf"));
+		assertTrue(sharded.isTruncated());
+	}
+
+	@Test
+	public void testRouteSelector() throws Exception {
+		TikaExtractor extractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_TEXT);
+		String expected = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf")).getText();
+
+		// pdftotext cannot start
+		extractor.setPdfToTextPath(new File("target", "missing-pdftotext").getAbsolutePath());
+		try {
+			extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+			fail("pdftotext is missing");
+		} catch (Exception e) {
+		}
+
+		RouteSelector selector = new RouteSelector();
+		selector.setMinConverterSize(0);
+		selector.setMinSamples(2);
+		selector.setExploreInterval(0);
+		extractor.setRouteSelector(selector);
+		for (int i = 0; i < 2; i++) {
+			ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+			assertEquals(TikaExtractor.ROUTE_TIKA, result.getRoute());
+			assertEquals(expected, result.getText());
+			assertTrue(result.getRouteDecision().isFallback());
+			assertEquals(TikaExtractor.ROUTE_PDFTOTEXT, result.getRouteDecision().getFailedRoute());
+		}
+		assertEquals(2, selector.getFallbacks());
+		assertEquals(1.0, selector.getRouteStats(TikaExtractor.ROUTE_PDFTOTEXT, TikaWrapper.CONTENT_TYPE_PDF).getErrorRate(), 0.001);
+
+		// pdftotext is avoided once its statistics are known
+		ExtractionResult result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+		assertEquals(TikaExtractor.ROUTE_TIKA, result.getRoute());
+		assertEquals(RouteSelector.REASON_ERRORS, result.getRouteDecision().getReason());
+		assertFalse(result.getRouteDecision().isFallback());
+		assertEquals(expected, result.getText());
+
+		// the small documents go to Tika
+		selector = new RouteSelector();
+		selector.setMinConverterSize(Long.MAX_VALUE);
+		extractor.setRouteSelector(selector);
+		result = extractor.extract(getClass().getResourceAsStream("../doc/java.pdf"), TikaWrapper.CONTENT_TYPE_PDF);
+		assertEquals(RouteSelector.REASON_SIZE, result.getRouteDecision().getReason());
+		assertFalse(result.getRouteDecision().isFallback());
+		assertEquals(Long.valueOf(1), selector.getDecisions().get(RouteSelector.REASON_SIZE));
+
+		// a parse failure is an error of the route and falls back to the converter, even if it produced an output 
+		// (nothing is expected from the metadata format)
+		PDDocument document = new PDDocument();
+		document.addPage(new PDPage());
+		document.protect(new StandardProtectionPolicy("owner", "user", new AccessPermission()));
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		document.save(encrypted);
+		document.close();
+		TikaExtractor metadataExtractor = new TikaExtractor(TikaWrapper.OUTPUT_FORMAT_METADATA);
+		metadataExtractor.setPdfToTextPath(new File("target", "missing-pdftotext").getAbsolutePath());
+		metadataExtractor.setRouteSelector(selector);
+		try {
+			metadataExtractor.extract(new ByteArrayInputStream(encrypted.toByteArray()), TikaWrapper.CONTENT_TYPE_PDF);
+			fail("pdftotext is missing");
+		} catch (Exception e) {
+		}
+		assertEquals(1, selector.getFallbacks());
+		assertEquals(0.5, selector.getRouteStats(TikaExtractor.ROUTE_TIKA, TikaWrapper.CONTENT_TYPE_PDF).getErrorRate(), 0.001);
+	}
+
+	private byte[] resource(String name) throws Exception {
+		return IOUtils.toByteArray(getClass().getResourceAsStream(name));
+	}
+
+	private static byte[] zip(String[] names, byte[][] contents) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bytes);
+		for (int i = 0; i < names.length; i++) {
+			zip.putNextEntry(new ZipEntry(names[i]));
+			zip.write(contents[i]);
+			zip.closeEntry();
+		}
+		zip.close();
+		return bytes.toByteArray();
+	}
+}